@@ -1,119 +1,361 @@
 package net.mcfr;
 
-import java.awt.Point;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.io.File;
 import java.io.IOException;
-import java.util.Optional;
+import java.util.Arrays;
 
 import net.mcfr.converter.BlocksConverter;
-import net.mcfr.minecraft.RegionFileCache;
+import net.mcfr.minecraft.CompressionPool;
+import net.mcfr.minecraft.RegionFile;
 import net.mcfr.minecraft.nbt.CompressedStreamTools;
 import net.mcfr.minecraft.nbt.NBTBase;
+import net.mcfr.minecraft.nbt.NBTStreamReader;
 import net.mcfr.minecraft.nbt.NBTTagCompound;
 import net.mcfr.minecraft.nbt.NBTTagList;
+import net.mcfr.minecraft.nbt.NBTVisitor;
+import net.mcfr.util.ChunkBorders;
+import net.mcfr.util.Neighborhood;
+import net.mcfr.util.PackedSection;
 
+/**
+ * Thread de traitement du pipeline de {@link MapBrowserBase} : décompresse et décode les chunks
+ * lus, appelle les méthodes de traitement des sous-classes puis recompresse les chunks modifiés
+ * avant de les transmettre aux écrivains. Les blocs de chaque section sont présentés aux
+ * sous-classes sous forme de {@link PackedSection}, réécrite dans le chunk si elle a été modifiée.
+ * <p>
+ * Si la sous-classe a besoin des blocs voisins ({@link #usesNeighborhood()}), toutes les sections
+ * du chunk sont décodées avant le traitement de la première et les faces des chunks voisins sont
+ * obtenues auprès du {@link NeighborhoodCache} de la dimension du chunk ; le {@link Neighborhood} est ensuite
+ * positionné sur chaque section avant l'appel à {@link #handleBlocksInSection}.
+ * <p>
+ * Une sous-classe qui ne fait que lire les chunks peut fournir un {@link NBTVisitor}
+ * ({@link #getChunkVisitor()}) : les chunks sont alors parcourus par un {@link NBTStreamReader}
+ * sans que leur arbre NBT soit construit, et ne sont jamais réécrits.
+ * <p>
+ * Sinon, le chunk est décompressé dans un tampon propre au thread puis lu par
+ * {@link CompressedStreamTools#readLazy} : seules les entrées consultées sont décodées, les autres
+ * (entités, lumière, biomes...) sont recopiées telles quelles à l'écriture. Les tags d'un chunk ne
+ * doivent donc pas être conservés au-delà de son traitement.
+ * 
+ * @author Mc-Fr
+ */
 public abstract class BrowserThreadBase<T extends MapBrowserBase> extends Thread {
-  /** Le largeur d'une région en nombre de chunks */
-  private static final int REGION_SIZE = 32;
-
   private final T browser;
-  private boolean displayProgress;
+  private final PackedSection packedSection;
+  /** Le tampon contenant le chunk en cours décompressé, réutilisé d'un chunk à l'autre. */
+  private byte[] chunkBuffer;
+  /** Le voisinage du chunk en cours, null si la sous-classe n'en a pas besoin. */
+  private Neighborhood neighborhood;
+  /** Le visiteur des chunks et son lecteur, null si les chunks sont entièrement décodés. */
+  private NBTVisitor chunkVisitor;
+  private NBTStreamReader streamReader;
+  /** Le chunk en cours. */
+  private ChunkTask task;
+  /** Le nombre de sections parcourues par le visiteur dans le chunk en cours. */
+  private int visitedSectionsCount;
   private boolean changed;
+  private boolean rejected;
 
-  public BrowserThreadBase(T browser, boolean displayProgress) {
+  public BrowserThreadBase(T browser) {
     this.browser = browser;
-    this.displayProgress = displayProgress;
+    this.packedSection = new PackedSection();
+    this.chunkBuffer = new byte[1 << 16];
     this.changed = false;
+    this.rejected = false;
   }
 
   public T getBrowser() {
     return this.browser;
   }
 
+  /**
+   * Indique si le dernier appel à {@link #handleTileEntities} ou {@link #handleBlocksInSection} a
+   * réellement modifié les données. Les chunks qu'aucun appel n'a modifiés ne sont pas réécrits.
+   * 
+   * @param changed true si les données ont été modifiées
+   */
   public void setChanged(boolean changed) {
     this.changed = changed;
   }
 
+  /**
+   * Indique si le traitement des sections a besoin des blocs voisins, voir
+   * {@link #getNeighborhood()}. Appelée au démarrage du thread.
+   * 
+   * @return true si le voisinage doit être chargé
+   */
+  protected boolean usesNeighborhood() {
+    return false;
+  }
+
+  /**
+   * @return le voisinage du chunk en cours, positionné sur la section passée à
+   *         {@link #handleBlocksInSection}, ou null si {@link #usesNeighborhood()} retourne false
+   */
+  protected Neighborhood getNeighborhood() {
+    return this.neighborhood;
+  }
+
+  /**
+   * Retourne le visiteur par lequel les chunks sont parcourus sans être décodés en arbre NBT, ou
+   * null pour les décoder entièrement et appeler {@link #handleTileEntities} et
+   * {@link #handleBlocksInSection}. Appelée au démarrage du thread.
+   * 
+   * @return le visiteur des chunks, ou null
+   */
+  protected NBTVisitor getChunkVisitor() {
+    return null;
+  }
+
+  /**
+   * Compte une section parcourue par le visiteur des chunks dans les statistiques.
+   */
+  protected void countVisitedSection() {
+    this.visitedSectionsCount++;
+  }
+
+  /**
+   * @return le nom du dossier de la dimension du chunk en cours, vide pour le monde normal
+   */
+  protected String getDimensionName() {
+    return this.task.getRegion().getDimension().getName();
+  }
+
+  /**
+   * @return l'abscisse du chunk en cours
+   */
+  protected int getChunkX() {
+    return this.task.getChunkX();
+  }
+
+  /**
+   * @return la cote du chunk en cours
+   */
+  protected int getChunkZ() {
+    return this.task.getChunkZ();
+  }
+
+  /**
+   * Indique que la section passée au dernier appel à {@link #handleBlocksInSection} a été écartée
+   * sans que ses blocs soient décodés. Elle est comptée dans les statistiques de fin de parcours.
+   */
+  public void setRejected() {
+    this.rejected = true;
+  }
+
   @Override
   public final void run() {
-    Optional<Point> optionalCoordinate;
-    File dir = new File(this.browser.getRegionDirectory());
-
-    while (!isInterrupted() && (optionalCoordinate = this.browser.getNextRegionCoordinate()).isPresent()) {
-      Point regionCoordinate = optionalCoordinate.get();
-
-      for (int x = 0; x < REGION_SIZE; x++) {
-        for (int y = 0; y < REGION_SIZE; y++) {
-          int chunkX = regionCoordinate.x * REGION_SIZE + x;
-          int chunkY = regionCoordinate.y * REGION_SIZE + y;
-          NBTTagCompound chunk;
-
-          // Lecture du chunk
-          try (DataInputStream in = RegionFileCache.getChunkInputStream(dir, chunkX, chunkY)) {
-            if (in == null)
-              continue;
-            chunk = CompressedStreamTools.read(in);
-          }
-          catch (IOException __) {
-            System.out.println(
-                String.format("Erreur lors de la lecture du chunk [%d, %d]@(%d, %d)", regionCoordinate.x, regionCoordinate.y, chunkX, chunkY));
-            continue;
-          }
-
-          NBTTagCompound level = chunk.getCompoundTag("Level");
-          NBTTagList sections = level.getTagList("Sections", NBTBase.COMPOUND);
-
-          handleTileEntities(level, level.getTagList("TileEntities", NBTBase.COMPOUND));
-
-          for (int i = 0; i < sections.tagCount(); i++) {
-            this.changed = false;
-
-            NBTTagCompound section = (NBTTagCompound) sections.get(i);
-            boolean addPresent = true;
-
-            byte[] blocks = section.getByteArray("Blocks");
-            byte[] add = section.getByteArray("Add");
-            byte[] data = section.getByteArray("Data");
-
-            if (blocks.length == 0 || data.length == 0) {
-              System.out.println(String.format("Section vide [%d, %d]@(%d, %d)@%d, ce n'est pas normal !", regionCoordinate.x, regionCoordinate.y,
-                  chunkX, chunkY, i));
-              continue;
-            }
-
-            if (add.length == 0) {
-              add = new byte[2048];
-              addPresent = false;
-            }
-
-            handleBlocksInSection(level, sections, section, blocks, add, data);
-
-            if (this.changed && !addPresent)
-              section.setByteArray("Add", add);
-          }
-
-          if (!BlocksConverter.READ_ONLY) {
-            try (DataOutputStream out = RegionFileCache.getChunkOutputStream(dir, chunkX, chunkY)) {
-              CompressedStreamTools.write(chunk, out);
-            }
-            catch (IOException e) {
-              System.out.println(
-                  String.format("Erreur lors de l'écriture du chunk [%d, %d]@(%d, %d)", regionCoordinate.x, regionCoordinate.y, chunkX, chunkY));
-              continue;
-            }
-          }
+    ChunkTask task;
+
+    if (usesNeighborhood())
+      this.neighborhood = new Neighborhood();
+    this.chunkVisitor = getChunkVisitor();
+    if (this.chunkVisitor != null)
+      this.streamReader = new NBTStreamReader();
+
+    try {
+      while (!isInterrupted() && (task = this.browser.takeChunk()) != ChunkTask.END) {
+        if (handleChunk(task))
+          this.browser.queueChunkToWrite(task);
+        else if (task.getRegion().chunkDone())
+          this.browser.notifyRegionFinished(task.getRegion());
+        if (this.browser.shouldRetire())
+          break;
+      }
+    }
+    catch (InterruptedException __) {}
+
+    CompressionPool.release();
+    this.browser.notifyWorkerFinished(getId());
+  }
+
+  /**
+   * Traite un chunk puis, si le voisinage est utilisé, signale au cache qu'il a été traité.
+   * 
+   * @param task le chunk
+   * @return true si le chunk doit être réécrit
+   */
+  private boolean handleChunk(ChunkTask task) {
+    try {
+      return processChunk(task);
+    }
+    finally {
+      if (this.neighborhood != null)
+        task.getRegion().getDimension().getNeighborhoodCache().release(task.getChunkX(), task.getChunkZ());
+    }
+  }
+
+  /**
+   * Décode un chunk, le traite puis le recompresse s'il a été modifié.
+   * 
+   * @param task le chunk
+   * @return true si le chunk doit être réécrit
+   */
+  private boolean processChunk(ChunkTask task) {
+    RegionTask region = task.getRegion();
+    this.task = task;
+    int chunkX = task.getChunkX();
+    int chunkY = task.getChunkZ();
+    NBTTagCompound chunk;
+
+    // Lecture du chunk
+    try (DataInputStream in = RegionFile.decompressChunkData(task.getData())) {
+      if (in == null)
+        return false;
+      if (this.chunkVisitor != null) {
+        this.visitedSectionsCount = 0;
+        this.streamReader.accept(in, this.chunkVisitor);
+        region.addStatistics(false, this.visitedSectionsCount, 0, 0);
+        return false;
+      }
+      // Le tampon peut être remplacé par un plus grand pendant la lecture.
+      int length = readChunkData(in);
+      chunk = CompressedStreamTools.readLazy(this.chunkBuffer, length);
+    }
+    catch (IOException __) {
+      System.out.println(String.format("Erreur lors de la lecture du chunk %s[%d, %d]@(%d, %d)",
+          region.getDimension().getName(), region.getCoordinate().x, region.getCoordinate().y, chunkX, chunkY));
+      return false;
+    }
+
+    NBTTagCompound level = chunk.getCompoundTag("Level");
+    NBTTagList sections = level.getTagList("Sections", NBTBase.COMPOUND);
+    int sectionsCount = 0, changedSectionsCount = 0, rejectedSectionsCount = 0;
+    boolean chunkChanged;
+
+    this.changed = false;
+    handleTileEntities(level, level.getTagList("TileEntities", NBTBase.COMPOUND));
+    chunkChanged = this.changed;
+
+    if (this.neighborhood != null)
+      loadNeighborhood(region.getDimension().getNeighborhoodCache(), chunkX, chunkY, sections);
+
+    for (int i = 0; i < sections.tagCount(); i++) {
+      this.changed = false;
+      this.rejected = false;
+
+      NBTTagCompound section = (NBTTagCompound) sections.get(i);
+      boolean addPresent = true;
+
+      byte[] blocks = section.getByteArray("Blocks");
+      byte[] add = section.getByteArray("Add");
+      byte[] data = section.getByteArray("Data");
+
+      if (blocks.length == 0 || data.length == 0) {
+        System.out.println(String.format("Section vide %s[%d, %d]@(%d, %d)@%d, ce n'est pas normal !",
+            region.getDimension().getName(), region.getCoordinate().x, region.getCoordinate().y, chunkX, chunkY, i));
+        continue;
+      }
+
+      if (add.length == 0)
+        addPresent = false;
+
+      if (this.neighborhood != null) {
+        int y = section.getByte("Y");
+
+        if (y < 0 || y >= ChunkBorders.SECTIONS_NUMBER) {
+          System.out.println(String.format("Section invalide %s[%d, %d]@(%d, %d)@%d, ce n'est pas normal !",
+              region.getDimension().getName(), region.getCoordinate().x, region.getCoordinate().y, chunkX, chunkY, i));
+          continue;
         }
+        this.packedSection.load(this.neighborhood.getSection(y));
+        this.neighborhood.setCurrentSection(y);
       }
+      else {
+        this.packedSection.load(blocks, addPresent ? add : null, data);
+      }
+      handleBlocksInSection(level, sections, section, this.packedSection);
+      sectionsCount++;
+      if (this.rejected)
+        rejectedSectionsCount++;
 
-      this.browser.updateProgress(this.displayProgress);
+      if (this.changed) {
+        if (!addPresent)
+          add = new byte[2048];
+        if (this.packedSection.pack(blocks, add, data) && !addPresent)
+          section.setByteArray("Add", add);
+        chunkChanged = true;
+        changedSectionsCount++;
+      }
     }
 
-    this.browser.notifyFinished(getId());
+    region.addStatistics(chunkChanged, sectionsCount, changedSectionsCount, rejectedSectionsCount);
+
+    if (chunkChanged && !BlocksConverter.READ_ONLY) {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(CompressionPool.deflaterStream(buffer, this.browser.getCompression())))) {
+        CompressedStreamTools.write(chunk, out);
+      }
+      catch (IOException e) {
+        System.out.println(String.format("Erreur lors de l'écriture du chunk %s[%d, %d]@(%d, %d)",
+            region.getDimension().getName(), region.getCoordinate().x, region.getCoordinate().y, chunkX, chunkY));
+        return false;
+      }
+
+      task.setResult(buffer.toByteArray(), buffer.size());
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Lit en entier un chunk décompressé dans le tampon du thread, agrandi si nécessaire.
+   * 
+   * @param in le flux du chunk
+   * @return la taille du chunk
+   * @throws IOException si le chunk ne peut pas être lu
+   */
+  private int readChunkData(DataInputStream in) throws IOException {
+    int length = 0, n;
+
+    while ((n = in.read(this.chunkBuffer, length, this.chunkBuffer.length - length)) != -1) {
+      length += n;
+      if (length == this.chunkBuffer.length)
+        this.chunkBuffer = Arrays.copyOf(this.chunkBuffer, 2 * length);
+    }
+
+    return length;
+  }
+
+  /**
+   * Copie les blocs d'origine de toutes les sections du chunk dans le voisinage, enregistre ses
+   * faces dans le cache puis récupère celles des huit chunks voisins.
+   * 
+   * @param cache le cache des faces de la dimension du chunk
+   * @param chunkX l'abscisse du chunk
+   * @param chunkZ la cote du chunk
+   * @param sections les sections du chunk
+   */
+  private void loadNeighborhood(NeighborhoodCache cache, int chunkX, int chunkZ, NBTTagList sections) {
+    this.neighborhood.clear();
+    for (int i = 0; i < sections.tagCount(); i++) {
+      NBTTagCompound section = (NBTTagCompound) sections.get(i);
+      int y = section.getByte("Y");
+      byte[] blocks = section.getByteArray("Blocks");
+      byte[] add = section.getByteArray("Add");
+      byte[] data = section.getByteArray("Data");
+
+      if (blocks.length != 0 && data.length != 0 && y >= 0 && y < ChunkBorders.SECTIONS_NUMBER) {
+        this.packedSection.load(blocks, add.length != 0 ? add : null, data);
+        this.neighborhood.setSection(y, this.packedSection.getKeys());
+      }
+    }
+
+    cache.register(chunkX, chunkZ, this.neighborhood.getBorders());
+    for (int dz = -1; dz <= 1; dz++) {
+      for (int dx = -1; dx <= 1; dx++) {
+        if (dx != 0 || dz != 0)
+          this.neighborhood.setNeighbor(dx, dz, cache.acquire(chunkX + dx, chunkZ + dz));
+      }
+    }
   }
 
   protected void handleTileEntities(NBTTagCompound level, NBTTagList tileEntities) {}
 
-  protected void handleBlocksInSection(NBTTagCompound level, NBTTagList sections, NBTTagCompound section, byte[] blocks, byte[] add, byte[] data) {}
+  protected void handleBlocksInSection(NBTTagCompound level, NBTTagList sections, NBTTagCompound section, PackedSection blocks) {}
 }
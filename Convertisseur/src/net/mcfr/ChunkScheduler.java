@@ -0,0 +1,99 @@
+package net.mcfr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Stack;
+
+/**
+ * Distribue les chunks à lire par lots. Chaque lecteur continue la région qu'il a commencée ; quand
+ * il n'y a plus de région à commencer, les lecteurs inoccupés se partagent les lots restants de la
+ * région la moins avancée au lieu d'attendre que son lecteur la termine seul.
+ * 
+ * @author Mc-Fr
+ */
+class ChunkScheduler {
+  /** Le nombre de chunks par lot (une colonne de région). */
+  static final int BATCH_SIZE = MapBrowserBase.REGION_SIZE;
+  private static final int CHUNKS_PER_REGION = MapBrowserBase.REGION_SIZE * MapBrowserBase.REGION_SIZE;
+
+  /** Les régions de toutes les dimensions qui n'ont pas encore été commencées. */
+  private final Stack<RegionTask> regions;
+  /** Les régions commencées dont il reste des lots à distribuer. */
+  private final List<RegionTask> activeRegions;
+
+  /**
+   * @param regions les régions à parcourir
+   */
+  public ChunkScheduler(Stack<RegionTask> regions) {
+    this.regions = regions;
+    this.activeRegions = new ArrayList<>();
+  }
+
+  /**
+   * Retourne le prochain lot à lire, de préférence dans la région donnée. Chaque lot détient un
+   * jeton de sa région (voir {@link RegionTask#chunkDone()}) que le lecteur doit rendre après
+   * avoir transmis ses chunks.
+   * 
+   * @param current la région du lot précédent du lecteur, ou null
+   * @return le prochain lot, ou rien s'il ne reste plus de chunk à lire
+   */
+  public synchronized Optional<ChunkBatch> nextBatch(RegionTask current) {
+    RegionTask region = null;
+
+    if (current != null && this.activeRegions.contains(current)) {
+      region = current;
+    }
+    else if (!this.regions.isEmpty()) {
+      region = this.regions.pop();
+      this.activeRegions.add(region);
+    }
+    else {
+      for (RegionTask r : this.activeRegions) {
+        if (region == null || r.getNextChunk() < region.getNextChunk())
+          region = r;
+      }
+    }
+
+    if (region == null)
+      return Optional.empty();
+
+    int start = region.getNextChunk();
+    int end = Math.min(start + BATCH_SIZE, CHUNKS_PER_REGION);
+
+    region.setNextChunk(end);
+    // Le dernier lot hérite du jeton initial de la région, les autres en prennent un nouveau.
+    if (end == CHUNKS_PER_REGION)
+      this.activeRegions.remove(region);
+    else
+      region.chunkQueued();
+
+    return Optional.of(new ChunkBatch(region, start, end));
+  }
+
+  /**
+   * Un lot de chunks consécutifs d'une région, indexés de 0 à 1023 (x * 32 + z).
+   */
+  static class ChunkBatch {
+    private final RegionTask region;
+    private final int start, end;
+
+    public ChunkBatch(RegionTask region, int start, int end) {
+      this.region = region;
+      this.start = start;
+      this.end = end;
+    }
+
+    public RegionTask getRegion() {
+      return this.region;
+    }
+
+    public int getStart() {
+      return this.start;
+    }
+
+    public int getEnd() {
+      return this.end;
+    }
+  }
+}
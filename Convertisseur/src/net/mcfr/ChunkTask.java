@@ -0,0 +1,66 @@
+package net.mcfr;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Un chunk circulant dans le pipeline : ses données compressées lues depuis la région, puis ses
+ * données recompressées à réécrire.
+ * 
+ * @author Mc-Fr
+ */
+class ChunkTask {
+  /** Marqueur de fin de flux, envoyé à chaque thread de l'étape suivante. */
+  public static final ChunkTask END = new ChunkTask(null, 0, 0, null);
+
+  private final RegionTask region;
+  private final int chunkX, chunkZ;
+  private ByteBuffer data;
+  private byte[] result;
+  private int resultLength;
+
+  public ChunkTask(RegionTask region, int chunkX, int chunkZ, ByteBuffer data) {
+    this.region = region;
+    this.chunkX = chunkX;
+    this.chunkZ = chunkZ;
+    this.data = data;
+  }
+
+  public RegionTask getRegion() {
+    return this.region;
+  }
+
+  public int getChunkX() {
+    return this.chunkX;
+  }
+
+  public int getChunkZ() {
+    return this.chunkZ;
+  }
+
+  /**
+   * @return les données lues, voir {@link net.mcfr.minecraft.RegionFile#getChunkData(int, int)}
+   */
+  public ByteBuffer getData() {
+    return this.data;
+  }
+
+  /**
+   * Remplace les données lues par les données compressées à écrire.
+   * 
+   * @param result les données compressées
+   * @param length la longueur utile du tableau
+   */
+  public void setResult(byte[] result, int length) {
+    this.data = null;
+    this.result = result;
+    this.resultLength = length;
+  }
+
+  public byte[] getResult() {
+    return this.result;
+  }
+
+  public int getResultLength() {
+    return this.resultLength;
+  }
+}
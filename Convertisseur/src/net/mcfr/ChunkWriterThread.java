@@ -0,0 +1,40 @@
+package net.mcfr;
+
+import net.mcfr.minecraft.RegionFileCache;
+
+/**
+ * Dernière étape du pipeline : écrit les chunks modifiés. Chaque région est toujours attribuée au
+ * même écrivain, ses écritures restent donc séquentielles.
+ * 
+ * @author Mc-Fr
+ */
+class ChunkWriterThread extends Thread {
+  private final MapBrowserBase browser;
+  private final int index;
+
+  /**
+   * @param browser le navigateur
+   * @param index l'indice de la file d'écriture de ce thread
+   */
+  public ChunkWriterThread(MapBrowserBase browser, int index) {
+    this.browser = browser;
+    this.index = index;
+  }
+
+  @Override
+  public void run() {
+    ChunkTask task;
+
+    try {
+      while (!isInterrupted() && (task = this.browser.takeChunkToWrite(this.index)) != ChunkTask.END) {
+        RegionFileCache.writeChunkData(task.getRegion().getDimension().getDir(), task.getChunkX(), task.getChunkZ(), task.getResult(),
+            task.getResultLength());
+        if (task.getRegion().chunkDone())
+          this.browser.notifyRegionFinished(task.getRegion());
+      }
+    }
+    catch (InterruptedException __) {}
+
+    this.browser.notifyFinished(getId());
+  }
+}
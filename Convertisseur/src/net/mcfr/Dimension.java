@@ -0,0 +1,49 @@
+package net.mcfr;
+
+import java.io.File;
+
+/**
+ * Une dimension d'une carte : le dossier contenant son dossier region (la carte elle-même pour le
+ * monde normal, DIM-1, DIM1 ou le dossier d'une dimension ajoutée par un mod pour les autres) et
+ * le cache des faces de ses chunks, les coordonnées des chunks n'étant uniques qu'au sein d'une
+ * dimension.
+ * 
+ * @author Mc-Fr
+ */
+class Dimension {
+  private final String name;
+  private final File dir;
+  private final NeighborhoodCache neighborhoodCache;
+
+  /**
+   * @param name le nom de la dimension, vide pour le monde normal
+   * @param dir le dossier contenant le dossier region de la dimension
+   */
+  public Dimension(String name, File dir) {
+    this.name = name;
+    this.dir = dir;
+    this.neighborhoodCache = new NeighborhoodCache(dir);
+  }
+
+  /**
+   * @return le nom du dossier de la dimension, vide pour le monde normal
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * @return le dossier contenant le dossier region de la dimension
+   */
+  public File getDir() {
+    return this.dir;
+  }
+
+  /**
+   * @return le cache des faces des chunks de la dimension, voir
+   *         {@link BrowserThreadBase#usesNeighborhood()}
+   */
+  public NeighborhoodCache getNeighborhoodCache() {
+    return this.neighborhoodCache;
+  }
+}
@@ -0,0 +1,62 @@
+package net.mcfr;
+
+import java.lang.reflect.Method;
+
+/**
+ * Type de threads utilisés pour la lecture des régions.
+ * 
+ * @author Mc-Fr
+ */
+public enum ExecutionMode {
+  /** Quelques threads système lisent les lots de chunks. */
+  PLATFORM,
+  /**
+   * Chaque lot de chunks est lu par un thread virtuel (Java 21 ou plus), ce qui permet de garder de
+   * nombreuses lectures en cours sur un stockage lent. La décompression et le traitement restent
+   * sur le nombre borné de threads de traitement.
+   */
+  VIRTUAL;
+
+  /** Les méthodes Thread.ofVirtual et Thread.Builder.unstarted, null avant Java 21. */
+  private static final Method OF_VIRTUAL;
+  private static final Method UNSTARTED;
+
+  static {
+    Method ofVirtual = null, unstarted = null;
+
+    try {
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+    }
+    catch (ReflectiveOperationException __) {}
+
+    OF_VIRTUAL = ofVirtual;
+    UNSTARTED = unstarted;
+  }
+
+  /**
+   * @return true si ce mode est utilisable avec la JVM courante
+   */
+  public boolean isAvailable() {
+    return this == PLATFORM || UNSTARTED != null;
+  }
+
+  /**
+   * Crée un thread (non démarré) de ce type.
+   * 
+   * @param task la tâche du thread
+   * @return le thread
+   * @throws UnsupportedOperationException si le mode n'est pas disponible
+   */
+  public Thread newThread(Runnable task) {
+    if (this == PLATFORM)
+      return new Thread(task);
+
+    try {
+      return (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), task);
+    }
+    catch (ReflectiveOperationException | NullPointerException e) {
+      throw new UnsupportedOperationException("Threads virtuels indisponibles", e);
+    }
+  }
+}
@@ -3,22 +3,79 @@ package net.mcfr;
 import java.awt.Point;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.Stack;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import net.mcfr.converter.BlocksConverter;
+import net.mcfr.minecraft.Compression;
+import net.mcfr.minecraft.RegionFileCache;
+import net.mcfr.util.WorldContext;
+
+/**
+ * Parcourt toutes les régions d'une carte avec un pipeline en trois étapes : des lecteurs chargent
+ * les données compressées des chunks, les threads de traitement ({@link BrowserThreadBase}) les
+ * décompressent, les modifient et les recompressent, puis des écrivains les réécrivent. Les étapes
+ * communiquent par des files bornées pour que les entrées/sorties et les calculs se recouvrent.
+ * <p>
+ * Toutes les dimensions de la carte ({@link Dimension}) sont parcourues : leurs régions sont
+ * réunies dans une seule file de travail et traitées par les mêmes threads.
+ * <p>
+ * Toutes les données propres à la carte sont portées par son {@link WorldContext} : plusieurs
+ * navigateurs peuvent parcourir des cartes différentes en même temps dans le même processus.
+ * 
+ * @author Mc-Fr
+ */
 public abstract class MapBrowserBase {
   /** Mode debug. */
   public static final boolean DEBUG = false;
+  /** Le largeur d'une région en nombre de chunks */
+  static final int REGION_SIZE = 32;
+  /** Le nombre de lecteurs et d'écrivains. */
+  private static final int IO_THREADS = 2;
+  /** Le nombre de lecteurs en mode {@link ExecutionMode#VIRTUAL}. */
+  private static final int VIRTUAL_READERS = 64;
+  /** La capacité de chaque file du pipeline, en chunks. */
+  private static final int QUEUE_CAPACITY = 64;
+  /** Nombre de threads indiquant que le nombre de threads de traitement est ajusté automatiquement. */
+  public static final int AUTO_THREADS = 0;
 
-  private final String regionDirectory;
-  private final Stack<Point> regionsCoordinates;
+  private final WorldContext context;
+  private final List<Dimension> dimensions;
+  private final ChunkScheduler scheduler;
   private final int filesNumber;
   protected final Stack<Thread> threads;
+  private final int threadsNb;
+  private ExecutionMode executionMode;
+  /** Les paramètres et les statistiques de compression des chunks réécrits. */
+  private Compression compression;
+  private final BlockingQueue<ChunkTask> chunksToProcess;
+  private final List<BlockingQueue<ChunkTask>> chunksToWrite;
+  private final AtomicInteger activeReaders;
+  private final AtomicInteger activeWorkers;
+  /** Le nombre de threads de traitement qui doivent s'arrêter (mode automatique). */
+  private final AtomicInteger workersToRetire;
+  private final LongAdder processedChunksCount;
+  private final LongAdder workersWaitTime;
   private int progress;
+  private long chunksCount;
+  private long changedChunksCount;
+  private long sectionsCount;
+  private long changedSectionsCount;
+  private long rejectedSectionsCount;
   private boolean started;
   private long startTime;
   private boolean interrupted;
@@ -27,15 +84,30 @@ public abstract class MapBrowserBase {
   /**
    * Crée un navigateur pour la carte donnée.
    * 
-   * @param regionDirectory le chemin vers le dossier region (contient aussi le fichier level.dat)
-   * @param threadsNb le nombre de threads
+   * @param context le contexte de la carte
+   * @param threadsNb le nombre de threads de traitement, ou {@link #AUTO_THREADS} pour l'ajuster
+   *          automatiquement à partir du nombre de cœurs
    * @throws IOException si une erreur de lecture/écriture est survenue
    */
-  public MapBrowserBase(String regionDirectory, int threadsNb) throws IOException {
-    this.regionDirectory = regionDirectory;
-    this.regionsCoordinates = getRegionsCoordinates();
-    this.filesNumber = this.regionsCoordinates.size();
+  public MapBrowserBase(WorldContext context, int threadsNb) throws IOException {
+    this.context = context;
+    this.dimensions = findDimensions();
+    Stack<RegionTask> regions = getRegions();
+    this.filesNumber = regions.size();
+    this.scheduler = new ChunkScheduler(regions);
     this.threads = new Stack<>();
+    this.threadsNb = threadsNb;
+    this.executionMode = ExecutionMode.PLATFORM;
+    this.compression = new Compression();
+    this.chunksToProcess = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    this.chunksToWrite = new ArrayList<>();
+    for (int i = 0; i < IO_THREADS; i++)
+      this.chunksToWrite.add(new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+    this.activeReaders = new AtomicInteger();
+    this.activeWorkers = new AtomicInteger();
+    this.workersToRetire = new AtomicInteger();
+    this.processedChunksCount = new LongAdder();
+    this.workersWaitTime = new LongAdder();
     this.progress = 0;
     this.started = false;
     this.startTime = 0;
@@ -43,28 +115,269 @@ public abstract class MapBrowserBase {
     this.finished = false;
   }
 
+  /**
+   * Définit le type de threads utilisés par les lecteurs.
+   * 
+   * @param executionMode le mode d'exécution
+   */
+  public void setExecutionMode(ExecutionMode executionMode) {
+    this.executionMode = executionMode;
+  }
+
+  /**
+   * Définit les paramètres de compression des chunks réécrits, avant le début du parcours.
+   * 
+   * @param compression les paramètres de compression
+   */
+  protected void setCompression(Compression compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * @return les paramètres et les statistiques de compression des chunks réécrits
+   */
+  public Compression getCompression() {
+    return this.compression;
+  }
+
   public void start() {
     this.progress = 0;
+    this.chunksCount = 0;
+    this.changedChunksCount = 0;
+    this.sectionsCount = 0;
+    this.changedSectionsCount = 0;
+    this.rejectedSectionsCount = 0;
     this.started = true;
     this.startTime = System.currentTimeMillis();
     this.interrupted = false;
     this.finished = false;
 
-    this.threads.forEach(thread -> thread.start());
+    int cores = Runtime.getRuntime().availableProcessors();
+    int workers = this.threadsNb == AUTO_THREADS ? cores : this.threadsNb;
+
+    if (!this.executionMode.isAvailable()) {
+      System.out.println("Les threads virtuels nécessitent Java 21, les threads système seront utilisés.");
+      this.executionMode = ExecutionMode.PLATFORM;
+    }
+    int readers = this.executionMode == ExecutionMode.VIRTUAL ? VIRTUAL_READERS : IO_THREADS;
+
+    this.activeWorkers.set(workers);
+    this.activeReaders.set(readers);
+    for (int i = 0; i < workers; i++)
+      this.threads.push(createWorker());
+    for (int i = 0; i < readers; i++)
+      this.threads.push(this.executionMode.newThread(new RegionReader(this)));
+    for (int i = 0; i < IO_THREADS; i++)
+      this.threads.push(new ChunkWriterThread(this, i));
+
+    new ArrayList<>(this.threads).forEach(thread -> thread.start());
+    if (this.threadsNb == AUTO_THREADS)
+      new WorkersController(this, 4 * cores).start();
+  }
+
+  /**
+   * Crée un thread de traitement.
+   * 
+   * @return le thread
+   */
+  protected abstract BrowserThreadBase<?> createWorker();
+
+  /**
+   * Ajoute un thread de traitement pendant le parcours.
+   * 
+   * @return true si le thread a été ajouté, false si le traitement est déjà terminé
+   */
+  synchronized boolean addWorker() {
+    if (this.workersToRetire.get() > 0) {
+      this.workersToRetire.decrementAndGet();
+      return true;
+    }
+    if (this.activeWorkers.getAndUpdate(n -> n > 0 ? n + 1 : n) == 0)
+      return false;
+
+    Thread worker = createWorker();
+    this.threads.push(worker);
+    worker.start();
+    return true;
+  }
+
+  /**
+   * Demande à un thread de traitement de s'arrêter après son chunk en cours.
+   */
+  void removeWorker() {
+    this.workersToRetire.incrementAndGet();
+  }
+
+  /**
+   * Indique au thread de traitement appelant s'il doit s'arrêter.
+   * 
+   * @return true si le thread doit s'arrêter
+   */
+  boolean shouldRetire() {
+    return this.workersToRetire.getAndUpdate(n -> n > 0 ? n - 1 : n) > 0;
+  }
+
+  /**
+   * @return le nombre de threads de traitement actifs, sans compter ceux qui vont s'arrêter
+   */
+  int getWorkersCount() {
+    return this.activeWorkers.get() - this.workersToRetire.get();
+  }
+
+  /**
+   * @return le nombre de chunks pris en charge par les threads de traitement
+   */
+  long getProcessedChunksCount() {
+    return this.processedChunksCount.sum();
+  }
+
+  /**
+   * @return le temps cumulé passé par les threads de traitement à attendre un chunk, en
+   *         nanosecondes
+   */
+  long getWorkersWaitTime() {
+    return this.workersWaitTime.sum();
+  }
+
+  /**
+   * @return true si tous les lecteurs ont terminé
+   */
+  boolean isReadingFinished() {
+    return this.started && this.activeReaders.get() == 0;
+  }
+
+  /**
+   * Transmet un chunk lu aux threads de traitement, en attendant qu'une place se libère.
+   * 
+   * @param task le chunk
+   * @throws InterruptedException si le thread a été interrompu pendant l'attente
+   */
+  void queueChunk(ChunkTask task) throws InterruptedException {
+    this.chunksToProcess.put(task);
+  }
+
+  /**
+   * Retourne le prochain chunk à traiter. Le marqueur de fin est remis dans la file pour les autres
+   * threads de traitement, dont le nombre peut varier.
+   * 
+   * @return le prochain chunk à traiter, ou {@link ChunkTask#END} quand la lecture est terminée
+   * @throws InterruptedException si le thread a été interrompu pendant l'attente
+   */
+  ChunkTask takeChunk() throws InterruptedException {
+    long start = System.nanoTime();
+    ChunkTask task = this.chunksToProcess.take();
+
+    this.workersWaitTime.add(System.nanoTime() - start);
+    if (task == ChunkTask.END)
+      this.chunksToProcess.put(ChunkTask.END);
+    else
+      this.processedChunksCount.increment();
+    return task;
+  }
+
+  /**
+   * Transmet un chunk modifié à l'écrivain responsable de sa région.
+   * 
+   * @param task le chunk
+   * @throws InterruptedException si le thread a été interrompu pendant l'attente
+   */
+  void queueChunkToWrite(ChunkTask task) throws InterruptedException {
+    Point p = task.getRegion().getCoordinate();
+    this.chunksToWrite.get(Math.floorMod(31 * p.x + p.y, IO_THREADS)).put(task);
+  }
+
+  /**
+   * @param index l'indice de l'écrivain
+   * @return le prochain chunk à écrire, ou {@link ChunkTask#END} quand le traitement est terminé
+   * @throws InterruptedException si le thread a été interrompu pendant l'attente
+   */
+  ChunkTask takeChunkToWrite(int index) throws InterruptedException {
+    return this.chunksToWrite.get(index).take();
+  }
+
+  /**
+   * Avertit qu'un lecteur a terminé. Le dernier lecteur signale la fin du flux aux threads de
+   * traitement.
+   * 
+   * @param threadId l'ID du lecteur
+   */
+  void notifyReaderFinished(long threadId) {
+    if (this.activeReaders.decrementAndGet() == 0) {
+      try {
+        this.chunksToProcess.put(ChunkTask.END);
+      }
+      catch (InterruptedException __) {}
+    }
+    notifyFinished(threadId);
+  }
+
+  /**
+   * Avertit qu'un thread de traitement a terminé. Le dernier signale la fin du flux aux écrivains.
+   * 
+   * @param threadId l'ID du thread
+   */
+  void notifyWorkerFinished(long threadId) {
+    if (this.activeWorkers.decrementAndGet() == 0) {
+      try {
+        for (BlockingQueue<ChunkTask> queue : this.chunksToWrite)
+          queue.put(ChunkTask.END);
+      }
+      catch (InterruptedException __) {}
+    }
+    notifyFinished(threadId);
+  }
+
+  /**
+   * Avertit que tous les chunks d'une région ont été traités : l'en-tête de la région est écrit,
+   * puis les statistiques et la progression sont mises à jour.
+   * 
+   * @param region la région
+   */
+  void notifyRegionFinished(RegionTask region) {
+    if (!BlocksConverter.READ_ONLY) {
+      Point p = region.getCoordinate();
+      try {
+        RegionFileCache.flushRegionFile(region.getDimension().getDir(), p.x * REGION_SIZE, p.y * REGION_SIZE);
+      }
+      catch (IOException __) {
+        System.out.println(
+            String.format("Erreur lors de l'écriture de l'en-tête de la région %s[%d, %d]", region.getDimension().getName(), p.x, p.y));
+      }
+    }
+    updateStatistics(region.getChunksCount(), region.getChangedChunksCount(), region.getSectionsCount(), region.getChangedSectionsCount(),
+        region.getRejectedSectionsCount());
+    updateProgress(isProgressDisplayed());
+  }
+
+  /**
+   * @return true si la progression doit être affichée à chaque région terminée
+   */
+  protected boolean isProgressDisplayed() {
+    return true;
+  }
+
+  /**
+   * Retourne le prochain lot de chunks à lire, voir {@link ChunkScheduler#nextBatch(RegionTask)}.
+   * 
+   * @param current la région du lot précédent du lecteur, ou null
+   * @return le prochain lot, ou rien s'il ne reste plus de chunk à lire
+   */
+  Optional<ChunkScheduler.ChunkBatch> getNextChunkBatch(RegionTask current) {
+    return this.scheduler.nextBatch(current);
   }
 
   /**
-   * @return les coordonées de la prochaine région à convertir
+   * @return le contexte de la carte
    */
-  public synchronized Optional<Point> getNextRegionCoordinate() {
-    return this.regionsCoordinates.isEmpty() ? Optional.empty() : Optional.of(this.regionsCoordinates.pop());
+  public WorldContext getContext() {
+    return this.context;
   }
 
   /**
    * @return le chemin du dossier contenant le dossier 'region'
    */
   public String getRegionDirectory() {
-    return this.regionDirectory;
+    return this.context.getWorldDirectory();
   }
 
   public boolean isFinished() {
@@ -86,6 +399,23 @@ public abstract class MapBrowserBase {
       System.out.format(Locale.ENGLISH, "Progression : %.2f%%\n", getProgress());
   }
 
+  /**
+   * Ajoute les compteurs d'une région aux statistiques de la conversion.
+   * 
+   * @param chunks le nombre de chunks lus
+   * @param changedChunks le nombre de chunks modifiés (donc réécrits)
+   * @param sections le nombre de sections lues
+   * @param changedSections le nombre de sections modifiées
+   * @param rejectedSections le nombre de sections écartées sans être décodées
+   */
+  public synchronized void updateStatistics(int chunks, int changedChunks, int sections, int changedSections, int rejectedSections) {
+    this.chunksCount += chunks;
+    this.changedChunksCount += changedChunks;
+    this.sectionsCount += sections;
+    this.changedSectionsCount += changedSections;
+    this.rejectedSectionsCount += rejectedSections;
+  }
+
   /**
    * Interrompt tous les threads.
    * 
@@ -109,6 +439,11 @@ public abstract class MapBrowserBase {
       this.threads.removeIf(thread -> thread.getId() == threadId);
     }
     if (this.threads.isEmpty()) {
+      for (Dimension dimension : this.dimensions) {
+        dimension.getNeighborhoodCache().clear();
+        RegionFileCache.clearRegionFileReferences(dimension.getDir());
+      }
+
       long rawTime = System.currentTimeMillis() - this.startTime;
       long hours = rawTime / (3600 * 1000);
       long minutes = (rawTime / (60 * 1000)) % 60;
@@ -124,28 +459,69 @@ public abstract class MapBrowserBase {
           System.out.println(String.format("Terminé en %d.%d s.", seconds, mseconds));
         else
           System.out.println(String.format("Terminé en %d ms.", mseconds));
+        printStatistics();
       }
       this.finished = true;
     }
   }
 
   /**
-   * Retourne les coordonnées de toutes les régions à convertir.
+   * Affiche les statistiques de fin de parcours.
+   */
+  protected void printStatistics() {
+    System.out.println(String.format("Chunks modifiés : %d/%d ; sections modifiées : %d/%d%s.", this.changedChunksCount, this.chunksCount,
+        this.changedSectionsCount, this.sectionsCount,
+        this.rejectedSectionsCount != 0 ? String.format(" (%d écartées sans décodage)", this.rejectedSectionsCount) : ""));
+  }
+
+  /**
+   * Retourne les dimensions de la carte : le monde normal, dont le dossier region est dans le
+   * dossier de la carte, puis chaque sous-dossier contenant un dossier region (DIM-1, DIM1, ou les
+   * dimensions ajoutées par des mods), par ordre alphabétique.
+   * 
+   * @return les dimensions
+   * @throws IOException si la lecture échoue ou si aucun dossier region n'a été trouvé
+   */
+  private List<Dimension> findDimensions() throws IOException {
+    List<Dimension> dimensions = new ArrayList<>();
+    Path worldDir = Paths.get(getRegionDirectory());
+    List<Path> subDirs;
+
+    if (Files.isDirectory(worldDir.resolve("region")))
+      dimensions.add(new Dimension("", worldDir.toFile()));
+    try (Stream<Path> files = Files.list(worldDir)) {
+      subDirs = files.filter(p -> Files.isDirectory(p.resolve("region"))).sorted().collect(Collectors.toList());
+    }
+    for (Path dir : subDirs)
+      dimensions.add(new Dimension(dir.getFileName().toString(), dir.toFile()));
+
+    if (dimensions.isEmpty())
+      throw new NoSuchFileException(worldDir.resolve("region").toString());
+
+    return dimensions;
+  }
+
+  /**
+   * Retourne toutes les régions à parcourir, de toutes les dimensions.
    * 
-   * @return la pile des coordonnées
+   * @return la pile des régions
    * @throws IOException si la lecture echoue
    */
-  private Stack<Point> getRegionsCoordinates() throws IOException {
-    Stack<Point> points = new Stack<>();
+  private Stack<RegionTask> getRegions() throws IOException {
+    Stack<RegionTask> regions = new Stack<>();
     Pattern pattern = Pattern.compile("r.(-?\\d+).(-?\\d+).mca");
 
-    Files.list(Paths.get(getRegionDirectory() + "region")).forEach(p -> {
-      Matcher m = pattern.matcher(p.getFileName().toString());
-      if (m.find()) {
-        points.push(new Point(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2))));
+    for (Dimension dimension : this.dimensions) {
+      try (Stream<Path> files = Files.list(dimension.getDir().toPath().resolve("region"))) {
+        files.forEach(p -> {
+          Matcher m = pattern.matcher(p.getFileName().toString());
+          if (m.find()) {
+            regions.push(new RegionTask(dimension, new Point(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)))));
+          }
+        });
       }
-    });
+    }
 
-    return points;
+    return regions;
   }
 }
@@ -0,0 +1,198 @@
+package net.mcfr;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.mcfr.minecraft.RegionFile;
+import net.mcfr.minecraft.RegionFileCache;
+import net.mcfr.minecraft.nbt.CompressedStreamTools;
+import net.mcfr.minecraft.nbt.NBTBase;
+import net.mcfr.minecraft.nbt.NBTTagCompound;
+import net.mcfr.minecraft.nbt.NBTTagList;
+import net.mcfr.util.ChunkBorders;
+import net.mcfr.util.PackedSection;
+
+/**
+ * Partage entre les threads de traitement les faces d'origine ({@link ChunkBorders}) des chunks
+ * dont un voisin n'a pas encore été traité. Les faces d'un chunk sont enregistrées par le thread
+ * qui le traite, ou lues sur le disque par le premier voisin qui en a besoin s'il n'a pas encore
+ * été traité : chaque chunk est décodé au plus une fois pour ses voisins, et toujours avant d'être
+ * réécrit.
+ * <p>
+ * Une entrée est retirée lorsque le chunk et tous ses voisins existants ont été traités.
+ * <p>
+ * Les lectures sur le disque sont faites hors des verrous de la table ; si deux threads préparent
+ * en même temps une entrée pour le même chunk, la première insérée est gardée. Les faces lues sur
+ * le disque ne peuvent pas remplacer celles enregistrées par le thread du chunk, qui les a lues
+ * avant de le réécrire.
+ * 
+ * @author Mc-Fr
+ */
+class NeighborhoodCache {
+  private final File worldDir;
+  private final ConcurrentMap<Long, Entry> entries;
+
+  /**
+   * @param worldDir le dossier contenant le dossier region
+   */
+  public NeighborhoodCache(File worldDir) {
+    this.worldDir = worldDir;
+    this.entries = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Enregistre les faces d'un chunk en cours de traitement, si un voisin ne les a pas déjà lues.
+   * 
+   * @param chunkX l'abscisse du chunk
+   * @param chunkZ la cote du chunk
+   * @param borders les faces d'origine du chunk
+   */
+  public void register(int chunkX, int chunkZ, ChunkBorders borders) {
+    Long key = getKey(chunkX, chunkZ);
+
+    if (!this.entries.containsKey(key))
+      this.entries.putIfAbsent(key, new Entry(borders, countConsumers(chunkX, chunkZ)));
+  }
+
+  /**
+   * Retourne les faces d'un chunk voisin, lues sur le disque si ce chunk n'a pas encore été traité.
+   * 
+   * @param chunkX l'abscisse du voisin
+   * @param chunkZ la cote du voisin
+   * @return les faces d'origine du voisin, ou null s'il n'existe pas ou ne peut pas être lu
+   */
+  public ChunkBorders acquire(int chunkX, int chunkZ) {
+    Long key = getKey(chunkX, chunkZ);
+    Entry entry = this.entries.get(key);
+
+    if (entry == null) {
+      ChunkBorders borders = load(chunkX, chunkZ);
+
+      if (borders == null) {
+        // La lecture échoue aussi si le chunk est en cours de réécriture : ses faces d'origine ont
+        // alors été enregistrées entre-temps par son thread.
+        entry = this.entries.get(key);
+        return entry == null ? null : entry.borders;
+      }
+      Entry newEntry = new Entry(borders, countConsumers(chunkX, chunkZ));
+      entry = this.entries.putIfAbsent(key, newEntry);
+      if (entry == null)
+        entry = newEntry;
+    }
+
+    return entry.borders;
+  }
+
+  /**
+   * Signale qu'un chunk a été traité : les entrées de ce chunk et de ses voisins dont il était le
+   * dernier utilisateur sont retirées.
+   * 
+   * @param chunkX l'abscisse du chunk
+   * @param chunkZ la cote du chunk
+   */
+  public void release(int chunkX, int chunkZ) {
+    for (int dz = -1; dz <= 1; dz++) {
+      for (int dx = -1; dx <= 1; dx++)
+        this.entries.computeIfPresent(getKey(chunkX + dx, chunkZ + dz), (__, entry) -> --entry.consumers == 0 ? null : entry);
+    }
+  }
+
+  /**
+   * Retire toutes les entrées, à la fin du parcours.
+   */
+  public void clear() {
+    this.entries.clear();
+  }
+
+  /**
+   * Compte les chunks qui utiliseront les faces d'un chunk : lui-même et ses voisins existants.
+   * 
+   * @param chunkX l'abscisse du chunk
+   * @param chunkZ la cote du chunk
+   * @return le nombre d'utilisateurs
+   */
+  private int countConsumers(int chunkX, int chunkZ) {
+    int count = 0;
+
+    for (int dz = -1; dz <= 1; dz++) {
+      for (int dx = -1; dx <= 1; dx++) {
+        if (dx == 0 && dz == 0 || chunkExists(chunkX + dx, chunkZ + dz))
+          count++;
+      }
+    }
+
+    return count;
+  }
+
+  private boolean chunkExists(int chunkX, int chunkZ) {
+    return RegionFileCache.regionFileExists(this.worldDir, chunkX, chunkZ)
+        && RegionFileCache.isChunkSaved(this.worldDir, chunkX, chunkZ);
+  }
+
+  /**
+   * Lit les faces d'un chunk sur le disque.
+   * 
+   * @param chunkX l'abscisse du chunk
+   * @param chunkZ la cote du chunk
+   * @return les faces du chunk, ou null s'il n'existe pas ou ne peut pas être lu
+   */
+  private ChunkBorders load(int chunkX, int chunkZ) {
+    if (!RegionFileCache.regionFileExists(this.worldDir, chunkX, chunkZ))
+      return null;
+
+    ByteBuffer chunkData = RegionFileCache.getChunkData(this.worldDir, chunkX, chunkZ);
+    NBTTagCompound chunk;
+
+    if (chunkData == null)
+      return null;
+    try (DataInputStream in = RegionFile.decompressChunkData(chunkData)) {
+      if (in == null)
+        return null;
+      chunk = CompressedStreamTools.read(in);
+    }
+    catch (IOException __) {
+      return null;
+    }
+
+    NBTTagList sections = chunk.getCompoundTag("Level").getTagList("Sections", NBTBase.COMPOUND);
+    ChunkBorders borders = new ChunkBorders();
+    PackedSection packedSection = new PackedSection();
+
+    for (int i = 0; i < sections.tagCount(); i++) {
+      NBTTagCompound section = (NBTTagCompound) sections.get(i);
+      int y = section.getByte("Y");
+      byte[] blocks = section.getByteArray("Blocks");
+      byte[] add = section.getByteArray("Add");
+      byte[] data = section.getByteArray("Data");
+
+      if (blocks.length != 0 && data.length != 0 && y >= 0 && y < ChunkBorders.SECTIONS_NUMBER) {
+        packedSection.load(blocks, add.length != 0 ? add : null, data);
+        borders.setSection(y, packedSection.getKeys());
+      }
+    }
+
+    return borders;
+  }
+
+  private static Long getKey(int chunkX, int chunkZ) {
+    return (long) chunkX << 32 | chunkZ & 0xffffffffL;
+  }
+
+  /**
+   * Les faces d'un chunk et le nombre de chunks qui doivent encore les utiliser, modifié seulement
+   * sous le verrou de la table.
+   */
+  private static class Entry {
+    private final ChunkBorders borders;
+    private int consumers;
+
+    public Entry(ChunkBorders borders, int consumers) {
+      this.borders = borders;
+      this.consumers = consumers;
+    }
+  }
+}
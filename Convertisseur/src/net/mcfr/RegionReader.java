@@ -0,0 +1,52 @@
+package net.mcfr;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import net.mcfr.ChunkScheduler.ChunkBatch;
+import net.mcfr.minecraft.RegionFileCache;
+
+/**
+ * Première étape du pipeline : lit les données compressées des lots de chunks distribués par le
+ * {@link ChunkScheduler} et les transmet aux threads de traitement. Les lecteurs s'exécutent sur
+ * des threads système ou virtuels selon l'{@link ExecutionMode}.
+ * 
+ * @author Mc-Fr
+ */
+class RegionReader implements Runnable {
+  private final MapBrowserBase browser;
+
+  public RegionReader(MapBrowserBase browser) {
+    this.browser = browser;
+  }
+
+  @Override
+  public void run() {
+    Optional<ChunkBatch> optionalBatch;
+    RegionTask region = null;
+
+    try {
+      while (!Thread.currentThread().isInterrupted() && (optionalBatch = this.browser.getNextChunkBatch(region)).isPresent()) {
+        ChunkBatch batch = optionalBatch.get();
+        region = batch.getRegion();
+
+        for (int i = batch.getStart(); i < batch.getEnd(); i++) {
+          int chunkX = region.getCoordinate().x * MapBrowserBase.REGION_SIZE + i / MapBrowserBase.REGION_SIZE;
+          int chunkY = region.getCoordinate().y * MapBrowserBase.REGION_SIZE + i % MapBrowserBase.REGION_SIZE;
+          ByteBuffer data = RegionFileCache.getChunkData(region.getDimension().getDir(), chunkX, chunkY);
+
+          if (data != null) {
+            region.chunkQueued();
+            this.browser.queueChunk(new ChunkTask(region, chunkX, chunkY, data));
+          }
+        }
+
+        if (region.chunkDone())
+          this.browser.notifyRegionFinished(region);
+      }
+    }
+    catch (InterruptedException __) {}
+
+    this.browser.notifyReaderFinished(Thread.currentThread().getId());
+  }
+}
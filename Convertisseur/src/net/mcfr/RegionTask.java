@@ -0,0 +1,105 @@
+package net.mcfr;
+
+import java.awt.Point;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Suivi d'une région en cours de traitement dans le pipeline. La région est terminée lorsque son
+ * lecteur a fini de la parcourir et que tous ses chunks ont été traités (et réécrits si besoin).
+ * 
+ * @author Mc-Fr
+ */
+class RegionTask {
+  private final Dimension dimension;
+  private final Point coordinate;
+  /** Le nombre de chunks en cours de traitement, plus un tant que la lecture n'est pas terminée. */
+  private final AtomicInteger pendingChunks;
+  private final AtomicInteger chunksCount;
+  private final AtomicInteger changedChunksCount;
+  private final AtomicInteger sectionsCount;
+  private final AtomicInteger changedSectionsCount;
+  private final AtomicInteger rejectedSectionsCount;
+  /** L'indice du premier chunk non distribué, protégé par le verrou de {@link ChunkScheduler}. */
+  private int nextChunk;
+
+  public RegionTask(Dimension dimension, Point coordinate) {
+    this.dimension = dimension;
+    this.coordinate = coordinate;
+    this.pendingChunks = new AtomicInteger(1);
+    this.chunksCount = new AtomicInteger();
+    this.changedChunksCount = new AtomicInteger();
+    this.sectionsCount = new AtomicInteger();
+    this.changedSectionsCount = new AtomicInteger();
+    this.rejectedSectionsCount = new AtomicInteger();
+  }
+
+  public Dimension getDimension() {
+    return this.dimension;
+  }
+
+  public Point getCoordinate() {
+    return this.coordinate;
+  }
+
+  int getNextChunk() {
+    return this.nextChunk;
+  }
+
+  void setNextChunk(int nextChunk) {
+    this.nextChunk = nextChunk;
+  }
+
+  /**
+   * Signale qu'un chunk de cette région a été lu et envoyé au traitement, ou qu'un lot de chunks a
+   * été attribué à un lecteur.
+   */
+  public void chunkQueued() {
+    this.pendingChunks.incrementAndGet();
+  }
+
+  /**
+   * Signale qu'un chunk a fini d'être traité, ou qu'un lot a fini d'être lu.
+   * 
+   * @return true si la région est entièrement traitée
+   */
+  public boolean chunkDone() {
+    return this.pendingChunks.decrementAndGet() == 0;
+  }
+
+  /**
+   * Ajoute les compteurs d'un chunk aux statistiques de la région.
+   * 
+   * @param changed indique si le chunk a été modifié
+   * @param sections le nombre de sections lues
+   * @param changedSections le nombre de sections modifiées
+   * @param rejectedSections le nombre de sections écartées sans être décodées
+   */
+  public void addStatistics(boolean changed, int sections, int changedSections, int rejectedSections) {
+    this.chunksCount.incrementAndGet();
+    if (changed)
+      this.changedChunksCount.incrementAndGet();
+    this.sectionsCount.addAndGet(sections);
+    this.changedSectionsCount.addAndGet(changedSections);
+    this.rejectedSectionsCount.addAndGet(rejectedSections);
+  }
+
+  public int getChunksCount() {
+    return this.chunksCount.get();
+  }
+
+  public int getChangedChunksCount() {
+    return this.changedChunksCount.get();
+  }
+
+  public int getSectionsCount() {
+    return this.sectionsCount.get();
+  }
+
+  public int getChangedSectionsCount() {
+    return this.changedSectionsCount.get();
+  }
+
+  public int getRejectedSectionsCount() {
+    return this.rejectedSectionsCount.get();
+  }
+}
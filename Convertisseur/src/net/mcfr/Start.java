@@ -5,33 +5,70 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 
 import net.mcfr.converter.BlocksConverter;
 import net.mcfr.finder.Finder;
-import net.mcfr.util.Util;
+import net.mcfr.util.WorldContext;
 
 public class Start {
   private static final Scanner IN = new Scanner(System.in);
+  /** Le nombre de threads de traitement lorsque l'option -t est absente. */
+  private static final int DEFAULT_THREADS = 4;
+  /** Les stratégies de compression acceptées par l'option -s. */
+  private static final Map<String, Integer> STRATEGIES = new HashMap<>();
+
+  static {
+    STRATEGIES.put("default", Deflater.DEFAULT_STRATEGY);
+    STRATEGIES.put("filtered", Deflater.FILTERED);
+    STRATEGIES.put("huffman", Deflater.HUFFMAN_ONLY);
+  }
 
   public static void main(String[] args) {
     if (args.length == 1 && args[0].equals("-h")) {
       printHelp();
     }
-    else if (args.length == 2 && args[0].equals("-f")) {
-      search(addSeparator(args[1]));
+    else if (args.length >= 2 && args[0].equals("-f")) {
+      search(addSeparator(args[1]), Arrays.copyOfRange(args, 2, args.length));
     }
-    else if ((args.length == 3 || args.length == 4 && args[3].equals("-a")) && args[0].equals("-c")) {
-      convertMap(addSeparator(args[0]), addSeparator(args[1]), args.length == 4 && args[3].equals("-a"));
+    else if (args.length >= 3 && args[0].equals("-c") && !args[2].startsWith("-")) {
+      // Les chemins des fichiers de config précèdent les options.
+      int optionsStart = 2;
+      while (optionsStart < args.length && !args[optionsStart].startsWith("-"))
+        optionsStart++;
+      List<String> configFilePaths = Arrays.stream(args, 2, optionsStart).map(Start::addSeparator).collect(Collectors.toList());
+      convertMap(addSeparator(args[1]), configFilePaths, Arrays.copyOfRange(args, optionsStart, args.length));
     }
     else
       printUsage();
   }
 
-  private static void search(String regionDirectory) {
+  private static void search(String regionDirectory, String[] options) {
+    ExecutionMode mode = ExecutionMode.PLATFORM;
+    int threadsNb = DEFAULT_THREADS;
+
+    for (int i = 0; i < options.length; i++) {
+      if (options[i].equals("-v")) {
+        mode = ExecutionMode.VIRTUAL;
+      }
+      else if (options[i].equals("-t") && i + 1 < options.length && isThreadsNumber(options[i + 1])) {
+        threadsNb = parseThreadsNumber(options[++i]);
+      }
+      else {
+        printUsage();
+        return;
+      }
+    }
+
     String version = String.format("= Finder v%s =", Finder.VERSION);
     String str = String.format("%" + version.length() + "s", "").replace(' ', '=');
 
@@ -41,6 +78,7 @@ public class Start {
     System.out.println("Taper 'exit' ou 'quit' pour quitter.");
 
     Pattern p = Pattern.compile("(\\w+:\\w+)/(-1|\\d+)");
+    WorldContext context = new WorldContext(regionDirectory);
     String input = null;
 
     while (!"exit".equals(input) && !"quit".equals(input)) {
@@ -56,14 +94,15 @@ public class Start {
         boolean isBlock;
 
         try {
-          isBlock = Util.getBlocksNamesToIdsTable(regionDirectory).containsKey(id);
+          isBlock = context.getRegistry().isBlock(id);
         }
         catch (IOException e) {
           System.out.println("Une erreur est survenue : " + e.getMessage());
           continue;
         }
         try {
-          Finder finder = new Finder(regionDirectory, id, meta, isBlock, 4);
+          Finder finder = new Finder(context, id, meta, isBlock, threadsNb);
+          finder.setExecutionMode(mode);
           finder.start();
           while (!finder.isFinished())
             System.out.format(Locale.ENGLISH, "Progression : %.2f%%\n", finder.getProgress());
@@ -77,7 +116,39 @@ public class Start {
     }
   }
 
-  private static void convertMap(String regionDirectory, String configFilePath, boolean isAltria) {
+  private static void convertMap(String regionDirectory, List<String> configFilePaths, String[] options) {
+    boolean isAltria = false;
+    boolean paletteMode = false;
+    ExecutionMode mode = ExecutionMode.PLATFORM;
+    int level = Deflater.DEFAULT_COMPRESSION;
+    int strategy = Deflater.DEFAULT_STRATEGY;
+    int threadsNb = DEFAULT_THREADS;
+
+    for (int i = 0; i < options.length; i++) {
+      if (options[i].equals("-a")) {
+        isAltria = true;
+      }
+      else if (options[i].equals("-p")) {
+        paletteMode = true;
+      }
+      else if (options[i].equals("-v")) {
+        mode = ExecutionMode.VIRTUAL;
+      }
+      else if (options[i].equals("-l") && i + 1 < options.length && options[i + 1].matches("\\d")) {
+        level = Integer.parseInt(options[++i]);
+      }
+      else if (options[i].equals("-s") && i + 1 < options.length && STRATEGIES.containsKey(options[i + 1])) {
+        strategy = STRATEGIES.get(options[++i]);
+      }
+      else if (options[i].equals("-t") && i + 1 < options.length && isThreadsNumber(options[i + 1])) {
+        threadsNb = parseThreadsNumber(options[++i]);
+      }
+      else {
+        printUsage();
+        return;
+      }
+    }
+
     try {
       String version = String.format("= Map Converter v%s =", BlocksConverter.VERSION);
       String str = String.format("%" + version.length() + "s", "").replace(' ', '=');
@@ -85,7 +156,11 @@ public class Start {
       System.out.println(str);
       System.out.println(version);
       System.out.println(str);
-      new BlocksConverter(regionDirectory, configFilePath, isAltria, 4).start();
+      BlocksConverter converter = new BlocksConverter(new WorldContext(regionDirectory), configFilePaths, isAltria, threadsNb);
+      converter.setCompression(level, strategy);
+      converter.setExecutionMode(mode);
+      converter.setPaletteMode(paletteMode);
+      converter.start();
     }
     catch (IOException e) {
       System.out.println("Une erreur est survenue : " + e.getMessage());
@@ -95,6 +170,26 @@ public class Start {
     }
   }
 
+  /**
+   * Indique si la valeur donnée est acceptée par l'option -t.
+   * 
+   * @param value la valeur
+   * @return true si c'est un nombre strictement positif ou "auto"
+   */
+  private static boolean isThreadsNumber(String value) {
+    return value.equals("auto") || value.matches("0*[1-9]\\d{0,3}");
+  }
+
+  /**
+   * Convertit la valeur de l'option -t en nombre de threads.
+   * 
+   * @param value la valeur
+   * @return le nombre de threads, ou {@link MapBrowserBase#AUTO_THREADS}
+   */
+  private static int parseThreadsNumber(String value) {
+    return value.equals("auto") ? MapBrowserBase.AUTO_THREADS : Integer.parseInt(value);
+  }
+
   /**
    * Ajoute le séparateur de fichiers à la fin du chemin donné s'il n'est pas déjà présent.
    * 
@@ -109,7 +204,7 @@ public class Start {
    * Affiche l'utilisation correcte du programme.
    */
   private static void printUsage() {
-    System.out.println("Arguments : [<path_to_region> <path_to_config> [-a]]");
+    System.out.println("Arguments : {-c <path_to_region> <path_to_config>... [-a] [-p] [-l <0-9>] [-s default|filtered|huffman] [-t <n>|auto] [-v]|-f <path_to_region> [-t <n>|auto] [-v]|-h}");
     System.out.println("Pour afficher l'aide, utilisez l'option -h");
   }
 
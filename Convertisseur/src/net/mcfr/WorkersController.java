@@ -0,0 +1,87 @@
+package net.mcfr;
+
+/**
+ * Ajuste le nombre de threads de traitement pendant le parcours en mode automatique. À chaque
+ * période, le débit (chunks traités par seconde) et la part du temps passée par les threads à
+ * attendre les lecteurs sont mesurés : un thread est ajouté tant que le débit progresse, retiré si
+ * le dernier ajout n'a rien apporté ou si les threads attendent surtout les entrées/sorties. Une
+ * fois le bon nombre trouvé, il n'est plus modifié.
+ * 
+ * @author Mc-Fr
+ */
+class WorkersController extends Thread {
+  /** La durée d'une période de mesure en millisecondes. */
+  private static final long PERIOD = 2000;
+  /** Le gain de débit minimal pour qu'un ajout de thread soit conservé. */
+  private static final double MIN_GAIN = 0.05;
+  /** La part du temps d'attente au-delà de laquelle les threads attendent surtout les lectures. */
+  private static final double MAX_WAIT = 0.5;
+
+  private final MapBrowserBase browser;
+  private final int maxWorkers;
+
+  /**
+   * @param browser le navigateur
+   * @param maxWorkers le nombre maximal de threads de traitement
+   */
+  public WorkersController(MapBrowserBase browser, int maxWorkers) {
+    this.browser = browser;
+    this.maxWorkers = maxWorkers;
+    setDaemon(true);
+  }
+
+  @Override
+  public void run() {
+    long lastChunks = this.browser.getProcessedChunksCount();
+    long lastWait = this.browser.getWorkersWaitTime();
+    long lastTime = System.nanoTime();
+    double lastThroughput = 0;
+    int lastChange = 0;
+    boolean settled = false;
+
+    try {
+      while (!settled && !this.browser.isReadingFinished()) {
+        Thread.sleep(PERIOD);
+
+        long chunks = this.browser.getProcessedChunksCount();
+        long wait = this.browser.getWorkersWaitTime();
+        long time = System.nanoTime();
+        int workers = this.browser.getWorkersCount();
+        double throughput = (chunks - lastChunks) * 1e9 / (time - lastTime);
+        double waitRatio = (double) (wait - lastWait) / ((time - lastTime) * workers);
+
+        lastChunks = chunks;
+        lastWait = wait;
+        lastTime = time;
+
+        if (lastChange > 0 && throughput < lastThroughput * (1 + MIN_GAIN)) {
+          // Le dernier ajout n'a rien apporté.
+          this.browser.removeWorker();
+          settled = true;
+        }
+        else if (lastChange < 0 && throughput < lastThroughput * (1 - MIN_GAIN)) {
+          // Le dernier retrait a fait baisser le débit.
+          this.browser.addWorker();
+          settled = true;
+        }
+        else if (waitRatio > MAX_WAIT) {
+          // Les threads attendent les lectures : en ajouter ne servirait à rien.
+          if (workers > 1)
+            this.browser.removeWorker();
+          lastChange = workers > 1 ? -1 : 0;
+        }
+        else if (workers < this.maxWorkers) {
+          lastChange = this.browser.addWorker() ? 1 : 0;
+        }
+        else {
+          settled = true;
+        }
+        lastThroughput = throughput;
+      }
+    }
+    catch (InterruptedException __) {}
+
+    if (settled)
+      System.out.println(String.format("Nombre de threads de traitement ajusté à %d.", this.browser.getWorkersCount()));
+  }
+}
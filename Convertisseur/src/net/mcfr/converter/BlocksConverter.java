@@ -3,10 +3,17 @@ package net.mcfr.converter;
 import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 
+import net.mcfr.BrowserThreadBase;
 import net.mcfr.MapBrowserBase;
+import net.mcfr.minecraft.Compression;
 import net.mcfr.replacer.AltriaUpdateReplacer;
 import net.mcfr.replacer.Replacer;
+import net.mcfr.util.WorldContext;
 
 /**
  * Convertisseur de carte.
@@ -20,23 +27,54 @@ public class BlocksConverter extends MapBrowserBase {
   /** Constante magique pour le debug empêchant l'écriture des fichiers. */
   public static final boolean READ_ONLY = false;
 
+  private final Replacer replacer;
+  private boolean paletteMode;
+
   /**
    * Crée un convertisseur pour la carte donnée.
    * 
-   * @param regionDirectory le chemin vers le dossier region (contient aussi le fichier level.dat)
-   * @param configFilePath le chemin du fichier de config
+   * @param context le contexte de la carte
+   * @param configFilePaths les chemins des dossiers des fichiers de config, dans l'ordre
+   *          d'application ; leurs tables sont fusionnées pour convertir la carte en un seul passage
    * @param isAltria indique si la carte fait partie d'Altria
-   * @param threadsNb le nombre de threads
+   * @param threadsNb le nombre de threads, ou {@link MapBrowserBase#AUTO_THREADS}
    * @throws IOException si une erreur de lecture/écriture est survenue
    * @throws ParseException si une erreur de syntaxe a été rencontrée dans le fichier de config
    */
-  public BlocksConverter(String regionDirectory, String configFilePath, boolean isAltria, int threadsNb) throws IOException, ParseException {
-    super(regionDirectory, threadsNb);
+  public BlocksConverter(WorldContext context, List<String> configFilePaths, boolean isAltria, int threadsNb)
+      throws IOException, ParseException {
+    super(context, threadsNb);
+
+    List<String> configFiles = configFilePaths.stream().map(path -> path + "ids.cfg").collect(Collectors.toList());
+    this.replacer = isAltria ? new AltriaUpdateReplacer(configFiles, context) : new Replacer(configFiles, context);
+    this.paletteMode = false;
+  }
+
+  /**
+   * Définit les paramètres de compression des chunks réécrits. Un niveau faible accélère les
+   * conversions de test, le niveau maximal réduit la taille de la carte publiée.
+   * 
+   * @param level le niveau de compression (de 0 à 9 ou {@link Deflater#DEFAULT_COMPRESSION})
+   * @param strategy la stratégie ({@link Deflater#DEFAULT_STRATEGY}, {@link Deflater#FILTERED} ou
+   *          {@link Deflater#HUFFMAN_ONLY})
+   */
+  public void setCompression(int level, int strategy) {
+    setCompression(new Compression(level, strategy));
+  }
+
+  /**
+   * Active ou désactive la conversion par palette : les règles sont appliquées une fois par couple
+   * ID/metadata distinct de chaque section plutôt qu'une fois par bloc.
+   * 
+   * @param paletteMode true pour convertir les sections par palette
+   */
+  public void setPaletteMode(boolean paletteMode) {
+    this.paletteMode = paletteMode;
+  }
 
-    String configFile = configFilePath + "ids.cfg";
-    Replacer replacer = isAltria ? new AltriaUpdateReplacer(configFile, getRegionDirectory()) : new Replacer(configFile, getRegionDirectory());
-    for (int i = 0; i < threadsNb; i++)
-      this.threads.push(new BlocksConverterThread(this, replacer));
+  @Override
+  protected BrowserThreadBase<?> createWorker() {
+    return new BlocksConverterThread(this, this.replacer, this.paletteMode);
   }
 
   /**
@@ -52,6 +90,18 @@ public class BlocksConverter extends MapBrowserBase {
 
     File dir = new File(getRegionDirectory());
     System.out.println(String.format("Conversion de la carte '%s' en cours...", dir.getName()));
+    getCompression().resetStatistics();
     super.start();
   }
+
+  @Override
+  protected void printStatistics() {
+    super.printStatistics();
+
+    Compression compression = getCompression();
+    long in = compression.getBytesIn();
+    long out = compression.getBytesOut();
+    System.out.println(String.format(Locale.ENGLISH, "Données écrites : %.2f Mo (%.2f Mo avant compression, ratio %.2f) ; compression : %.2f s (temps processeur).",
+        out / 1048576., in / 1048576., out != 0 ? (double) in / out : 0, compression.getDeflateTime() / 1e9));
+  }
 }
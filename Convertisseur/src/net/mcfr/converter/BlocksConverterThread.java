@@ -5,33 +5,46 @@ import java.io.FileWriter;
 import java.io.IOException;
 
 import net.mcfr.BrowserThreadBase;
+import net.mcfr.minecraft.nbt.NBTBase;
 import net.mcfr.minecraft.nbt.NBTTagCompound;
 import net.mcfr.minecraft.nbt.NBTTagList;
 import net.mcfr.replacer.Replacer;
-import net.mcfr.util.BlockId;
-import net.mcfr.util.Util;
+import net.mcfr.replacer.SectionPalette;
+import net.mcfr.util.PackedSection;
 
 /**
- * Thread chargé de la conversion des régions.
+ * Thread chargé de la conversion des régions. Si le remplaceur a des règles contextuelles, les
+ * sections sont converties bloc par bloc avec leur voisinage, même en mode palette.
  * 
  * @author Mc-Fr
  */
 class BlocksConverterThread extends BrowserThreadBase<BlocksConverter> {
   private Replacer replacer;
+  /** La palette des sections, null si la conversion se fait bloc par bloc. */
+  private SectionPalette palette;
 
   /**
    * Instancie un nouveau thread pour effectuer la conversion.
    * 
    * @param converter le convertisseur
    * @param replacer le remplaceur
+   * @param paletteMode indique si les sections sont converties par palette
    */
-  public BlocksConverterThread(BlocksConverter converter, Replacer replacer) {
-    super(converter, true);
+  public BlocksConverterThread(BlocksConverter converter, Replacer replacer, boolean paletteMode) {
+    super(converter);
     this.replacer = replacer;
+    this.palette = paletteMode ? new SectionPalette() : null;
+  }
+
+  @Override
+  protected boolean usesNeighborhood() {
+    return this.replacer.hasContextualRules();
   }
 
   @Override
   protected void handleTileEntities(NBTTagCompound level, NBTTagList tileEntities) {
+    setChanged(tileEntities.tagCount() != 0 || level.getTagList("Entities", NBTBase.COMPOUND).tagCount() != 0
+        || level.getTagList("TileTicks", NBTBase.COMPOUND).tagCount() != 0);
     level.setTag("Entities", new NBTTagList());
     level.setTag("TileEntities", new NBTTagList());
     if (level.hasKey("TileTicks"))
@@ -39,35 +52,49 @@ class BlocksConverterThread extends BrowserThreadBase<BlocksConverter> {
   }
 
   @Override
-  public void handleBlocksInSection(NBTTagCompound level, NBTTagList sections, NBTTagCompound section, byte[] blocks, byte[] add, byte[] data) {
+  public void handleBlocksInSection(NBTTagCompound level, NBTTagList sections, NBTTagCompound section, PackedSection blocks) {
     if (BlocksConverter.DEBUG)
-      displayArrays(blocks, add, data, BlocksConverter.DEBUG_DIR, "0");
-    for (int i = 0; i < blocks.length; i++)
-      this.replacer.replace(blocks, add, data, i, new BlockId(Util.getId(blocks, add, i), Util.extractHalfByte(data, i)));
+      displayBlocks(blocks, BlocksConverter.DEBUG_DIR, "0");
+    if (!this.replacer.mayReplace(blocks)) {
+      setRejected();
+      setChanged(false);
+      return;
+    }
+    boolean changed;
+    if (getNeighborhood() != null)
+      changed = this.replacer.replaceSection(blocks, getNeighborhood());
+    else if (this.palette != null)
+      changed = this.replacer.replaceSection(blocks, this.palette);
+    else
+      changed = this.replacer.replaceSection(blocks);
     if (BlocksConverter.DEBUG)
-      displayArrays(blocks, add, data, BlocksConverter.DEBUG_DIR, "1");
-    setChanged(true);
+      displayBlocks(blocks, BlocksConverter.DEBUG_DIR, "1");
+    setChanged(changed);
   }
 
   /**
-   * Affiche les tableaux.
+   * Affiche les blocs d'une section.
    * 
    * @param blocks les blocs
-   * @param add les valeurs additionnelles
-   * @param data les metadatas
    * @param directory le chemin vers le dossier
    * @param fileName le nom du fichier
    */
-  private void displayArrays(byte[] blocks, byte[] add, byte[] data, String directory, String fileName) {
+  private void displayBlocks(PackedSection blocks, String directory, String fileName) {
     try (FileWriter fw = new FileWriter(new File(directory + "dump" + fileName + ".txt"))) {
-      for (int i = 0; i < blocks.length; i++) {
-        if (blocks[i] != 0) {
+      for (int i = 0; i < PackedSection.BLOCKS_NUMBER; i++) {
+        int id = blocks.getId(i);
+
+        if ((id & 0xff) != 0) {
+          // Octets Data et Add partagés par la paire de blocs.
+          int pair = i & ~1;
+          int data = blocks.getMeta(pair) | blocks.getMeta(pair + 1) << 4;
+          int add = blocks.getId(pair) >>> 8 | blocks.getId(pair + 1) >>> 8 << 4;
+
           if (i % 256 == 0)
             fw.write("------------\n");
-          fw.write(String.format("%d:\tBlock:\t%d\t(ID: %d, Add: %d); Data:\t%d;\t(%d,\t%d,\t%d); %s %s\n", i / 2, Util.getId(blocks, add, i),
-              Byte.toUnsignedInt(blocks[i]), Util.extractHalfByte(add, i), Util.extractHalfByte(data, i), i % 16, i / 256, (i / 16) % 16,
-              String.format("%8s", Integer.toBinaryString(Byte.toUnsignedInt(data[i / 2]))).replace(' ', '0'),
-              String.format("%8s", Integer.toBinaryString(Byte.toUnsignedInt(add[i / 2]))).replace(' ', '0')));
+          fw.write(String.format("%d:\tBlock:\t%d\t(ID: %d, Add: %d); Data:\t%d;\t(%d,\t%d,\t%d); %s %s\n", i / 2, id, id & 0xff, id >>> 8,
+              blocks.getMeta(i), i % 16, i / 256, (i / 16) % 16, String.format("%8s", Integer.toBinaryString(data)).replace(' ', '0'),
+              String.format("%8s", Integer.toBinaryString(add)).replace(' ', '0')));
         }
       }
     }
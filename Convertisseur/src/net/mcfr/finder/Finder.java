@@ -4,8 +4,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.mcfr.BrowserThreadBase;
 import net.mcfr.MapBrowserBase;
 import net.mcfr.util.BlockPos;
+import net.mcfr.util.WorldContext;
 
 public class Finder extends MapBrowserBase {
   public static final String VERSION = "1.0";
@@ -14,16 +16,21 @@ public class Finder extends MapBrowserBase {
   private final String id;
   private final int meta;
   private final boolean isBlock;
+  /** L'ID numérique du bloc recherché, résolu une fois pour toute la recherche. */
+  private final int blockId;
 
-  public Finder(String regionDirectory, String id, int meta, boolean isBlock, int threadsNb) throws IOException {
-    super(regionDirectory, threadsNb);
+  public Finder(WorldContext context, String id, int meta, boolean isBlock, int threadsNb) throws IOException {
+    super(context, threadsNb);
     this.points = new ArrayList<>();
     this.id = id;
     this.meta = meta;
     this.isBlock = isBlock;
+    this.blockId = isBlock ? context.getRegistry().getBlockId(id) : -1;
+  }
 
-    for (int i = 0; i < threadsNb; i++)
-      this.threads.push(new FinderThread(this));
+  @Override
+  protected BrowserThreadBase<?> createWorker() {
+    return new FinderThread(this);
   }
 
   public List<BlockPos> getPositions() {
@@ -46,6 +53,15 @@ public class Finder extends MapBrowserBase {
     return this.isBlock;
   }
 
+  public int getBlockId() {
+    return this.blockId;
+  }
+
+  @Override
+  protected boolean isProgressDisplayed() {
+    return false;
+  }
+
   @Override
   public void start() {
     System.out.println(String.format("Recherche en cours..."));
@@ -1,68 +1,214 @@
 package net.mcfr.finder;
 
-import java.io.IOException;
-import java.util.Map;
-
 import net.mcfr.BrowserThreadBase;
 import net.mcfr.minecraft.nbt.NBTBase;
-import net.mcfr.minecraft.nbt.NBTTagCompound;
-import net.mcfr.minecraft.nbt.NBTTagList;
-import net.mcfr.util.BlockId;
+import net.mcfr.minecraft.nbt.NBTVisitor;
 import net.mcfr.util.BlockPos;
-import net.mcfr.util.Util;
+import net.mcfr.util.PackedSection;
 
+/**
+ * Recherche un bloc ou un item dans les chunks sans construire leur arbre NBT : seules les entrées
+ * utiles des sections et des tile entities sont lues, le reste du chunk (entités, lumière,
+ * biomes...) est sauté.
+ * 
+ * @author Mc-Fr
+ */
 public class FinderThread extends BrowserThreadBase<Finder> {
-  private Map<Integer, String> blocksIdsToNames;
+  private final ChunkScanner scanner;
 
   public FinderThread(Finder browser) {
-    super(browser, false);
-    try {
-      this.blocksIdsToNames = Util.getBlocksIdsToNamesTable(getBrowser().getRegionDirectory());
-    }
-    catch (IOException __) {}
+    super(browser);
+    this.scanner = new ChunkScanner();
   }
 
   @Override
-  protected void handleTileEntities(NBTTagCompound level, NBTTagList tileEntities) {
-    for (int i = 0; i < tileEntities.tagCount(); i++) {
-      NBTTagCompound te = tileEntities.getCompoundTagAt(i);
-
-      if (te.hasKey("Items")) {
-        NBTTagList items = te.getTagList("Items", NBTBase.COMPOUND);
-
-        for (int j = 0; j < items.tagCount(); j++) {
-          NBTTagCompound item = items.getCompoundTagAt(j);
-          int targetMeta = getBrowser().getMeta();
-
-          if (getBrowser().getId().equals(item.getString("id")) && (targetMeta == -1 || targetMeta == item.getInteger("Damage"))) {
-            int x = te.getInteger("x");
-            int y = te.getInteger("y");
-            int z = te.getInteger("z");
-            getBrowser().addPosition(new BlockPos(x, y, z, te.getString("id")));
-          }
-        }
+  protected NBTVisitor getChunkVisitor() {
+    return this.scanner;
+  }
+
+  /**
+   * Parcourt un chunk. L'ordre des entrées d'un compound n'étant pas fixé, les valeurs utiles d'une
+   * section, d'une tile entity ou d'un item sont conservées jusqu'à la fin de son compound.
+   * Profondeurs des compounds : 1 pour la racine, 2 pour Level, 3 pour une section ou une tile
+   * entity et 4 pour un item.
+   */
+  private class ChunkScanner implements NBTVisitor {
+    private final PackedSection section;
+    private final byte[] blocks, add, data;
+    private int depth;
+    private String key;
+    private boolean inSections, inTileEntities, inItems;
+    /** Indique si les tableaux de la section en cours ont été lus. */
+    private boolean hasBlocks, hasAdd, hasData;
+    private int sectionY;
+    private int x, y, z;
+    private String tileEntityId;
+    /** Le nombre d'items correspondants dans la tile entity en cours. */
+    private int foundItems;
+    private String itemId;
+    private int itemDamage;
+
+    public ChunkScanner() {
+      this.section = new PackedSection();
+      this.blocks = new byte[PackedSection.BLOCKS_NUMBER];
+      this.add = new byte[PackedSection.BLOCKS_NUMBER / 2];
+      this.data = new byte[PackedSection.BLOCKS_NUMBER / 2];
+    }
+
+    @Override
+    public boolean visitEntry(byte type, String key) {
+      this.key = key;
+
+      switch (this.depth) {
+        case 1:
+          return key.equals("Level");
+        case 2:
+          return key.equals("Sections") && getBrowser().isBlock() || key.equals("TileEntities");
+        case 3:
+          if (this.inSections)
+            return key.equals("Y") || key.equals("Blocks") || key.equals("Add") || key.equals("Data");
+          return key.equals("x") || key.equals("y") || key.equals("z") || key.equals("id") || key.equals("Items");
+        case 4:
+          return key.equals("id") || key.equals("Damage");
+        default:
+          return false;
       }
     }
-  }
 
-  @Override
-  protected void handleBlocksInSection(NBTTagCompound level, NBTTagList sections, NBTTagCompound section, byte[] blocks, byte[] add, byte[] data) {
-    if (getBrowser().isBlock()) {
-      int chunkX = level.getInteger("xPos") * 16;
-      int sectionY = section.getInteger("Y") * 16;
-      int chunkZ = level.getInteger("zPos") * 16;
-
-      for (int i = 0; i < blocks.length; i++) {
-        BlockId id = new BlockId(Util.getId(blocks, add, i), Util.extractHalfByte(data, i));
+    @Override
+    public boolean startList(byte elementType, int length) {
+      if (elementType != NBTBase.COMPOUND)
+        return false;
+      if (this.depth == 2) {
+        this.inSections = this.key.equals("Sections");
+        this.inTileEntities = this.key.equals("TileEntities");
+      }
+      else
+        this.inItems = true;
+      return true;
+    }
+
+    @Override
+    public void endList() {
+      if (this.depth == 2)
+        this.inSections = this.inTileEntities = false;
+      else
+        this.inItems = false;
+    }
+
+    @Override
+    public void startCompound() {
+      this.depth++;
+      if (this.depth == 3) {
+        this.hasBlocks = this.hasAdd = this.hasData = false;
+        this.sectionY = this.x = this.y = this.z = 0;
+        this.tileEntityId = "";
+        this.foundItems = 0;
+      }
+      else if (this.depth == 4) {
+        this.itemId = null;
+        this.itemDamage = 0;
+      }
+    }
+
+    @Override
+    public void endCompound() {
+      if (this.depth == 3 && this.inSections)
+        endSection();
+      else if (this.depth == 3 && this.inTileEntities) {
+        for (int i = 0; i < this.foundItems; i++)
+          getBrowser().addPosition(new BlockPos(getDimensionName(), this.x, this.y, this.z, this.tileEntityId));
+      }
+      else if (this.depth == 4 && this.inItems) {
         int targetMeta = getBrowser().getMeta();
 
-        if (getBrowser().getId().equals(this.blocksIdsToNames.get(id.getId())) && (targetMeta == -1 || targetMeta == id.getMeta())) {
+        if (getBrowser().getId().equals(this.itemId) && (targetMeta == -1 || targetMeta == this.itemDamage))
+          this.foundItems++;
+      }
+      this.depth--;
+    }
+
+    /**
+     * Recherche le bloc dans la section dont le compound vient d'être lu.
+     */
+    private void endSection() {
+      if (!this.hasBlocks || !this.hasData)
+        return;
+
+      countVisitedSection();
+      this.section.load(this.blocks, this.hasAdd ? this.add : null, this.data);
+
+      int chunkX = getChunkX() * 16;
+      int sectionY = this.sectionY * 16;
+      int chunkZ = getChunkZ() * 16;
+      int targetId = getBrowser().getBlockId();
+      int targetMeta = getBrowser().getMeta();
+
+      for (int i = 0; i < PackedSection.BLOCKS_NUMBER; i++) {
+        if (this.section.getId(i) == targetId && (targetMeta == -1 || targetMeta == this.section.getMeta(i))) {
           int x = chunkX + i % 16;
           int y = sectionY + i / 256;
           int z = chunkZ + (i / 16) % 16;
-          getBrowser().addPosition(new BlockPos(x, y, z, null));
+          getBrowser().addPosition(new BlockPos(getDimensionName(), x, y, z, null));
         }
       }
     }
+
+    @Override
+    public void visitByte(byte value) {
+      visitNumber(value);
+    }
+
+    @Override
+    public void visitShort(short value) {
+      visitNumber(value);
+    }
+
+    @Override
+    public void visitInt(int value) {
+      visitNumber(value);
+    }
+
+    private void visitNumber(int value) {
+      if (this.depth == 3 && this.inSections && this.key.equals("Y"))
+        this.sectionY = value;
+      else if (this.depth == 3 && this.inTileEntities) {
+        if (this.key.equals("x"))
+          this.x = value;
+        else if (this.key.equals("y"))
+          this.y = value;
+        else if (this.key.equals("z"))
+          this.z = value;
+      }
+      else if (this.depth == 4 && this.inItems && this.key.equals("Damage"))
+        this.itemDamage = value;
+    }
+
+    @Override
+    public void visitString(String value) {
+      if (this.depth == 3 && this.inTileEntities)
+        this.tileEntityId = value;
+      else if (this.depth == 4 && this.inItems)
+        this.itemId = value;
+    }
+
+    @Override
+    public void visitByteArray(byte[] value, int length) {
+      if (this.depth != 3 || !this.inSections)
+        return;
+
+      if (this.key.equals("Blocks") && length == this.blocks.length) {
+        System.arraycopy(value, 0, this.blocks, 0, length);
+        this.hasBlocks = true;
+      }
+      else if (this.key.equals("Add") && length == this.add.length) {
+        System.arraycopy(value, 0, this.add, 0, length);
+        this.hasAdd = true;
+      }
+      else if (this.key.equals("Data") && length == this.data.length) {
+        System.arraycopy(value, 0, this.data, 0, length);
+        this.hasData = true;
+      }
+    }
   }
 }
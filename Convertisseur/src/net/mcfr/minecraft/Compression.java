@@ -0,0 +1,98 @@
+package net.mcfr.minecraft;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * Les paramètres des flux compressants d'un parcours et les statistiques de compression qu'ils
+ * alimentent. Chaque navigateur a sa propre instance : plusieurs cartes peuvent être converties
+ * en même temps avec des paramètres différents.
+ * 
+ * @author Mc-Fr
+ */
+public final class Compression {
+  private final int level;
+  private final int strategy;
+  private final LongAdder bytesIn;
+  private final LongAdder bytesOut;
+  private final LongAdder deflateTime;
+
+  /**
+   * Crée des paramètres de compression par défaut.
+   */
+  public Compression() {
+    this(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+  }
+
+  /**
+   * Crée des paramètres de compression.
+   * 
+   * @param level le niveau de compression (de 0 à 9 ou {@link Deflater#DEFAULT_COMPRESSION})
+   * @param strategy la stratégie ({@link Deflater#DEFAULT_STRATEGY}, {@link Deflater#FILTERED} ou
+   *          {@link Deflater#HUFFMAN_ONLY})
+   */
+  public Compression(int level, int strategy) {
+    this.level = level;
+    this.strategy = strategy;
+    this.bytesIn = new LongAdder();
+    this.bytesOut = new LongAdder();
+    this.deflateTime = new LongAdder();
+  }
+
+  public int getLevel() {
+    return this.level;
+  }
+
+  public int getStrategy() {
+    return this.strategy;
+  }
+
+  /**
+   * @return le nombre d'octets passés aux flux compressants depuis la dernière remise à zéro
+   */
+  public long getBytesIn() {
+    return this.bytesIn.sum();
+  }
+
+  /**
+   * @return le nombre d'octets produits par les flux compressants depuis la dernière remise à zéro
+   */
+  public long getBytesOut() {
+    return this.bytesOut.sum();
+  }
+
+  /**
+   * @return le temps processeur cumulé passé à compresser par tous les threads, en nanosecondes ;
+   *         les flux utilisés sur des threads virtuels ne sont pas comptés
+   */
+  public long getDeflateTime() {
+    return this.deflateTime.sum();
+  }
+
+  /**
+   * Remet à zéro les statistiques de compression.
+   */
+  public void resetStatistics() {
+    this.bytesIn.reset();
+    this.bytesOut.reset();
+    this.deflateTime.reset();
+  }
+
+  /**
+   * Ajoute les statistiques d'un flux compressant.
+   * 
+   * @param bytesIn le nombre d'octets compressés
+   * @param bytesOut le nombre d'octets produits
+   */
+  void addBytes(long bytesIn, long bytesOut) {
+    this.bytesIn.add(bytesIn);
+    this.bytesOut.add(bytesOut);
+  }
+
+  /**
+   * @param time le temps processeur passé à compresser, en nanosecondes
+   */
+  void addDeflateTime(long time) {
+    this.deflateTime.add(time);
+  }
+}
@@ -0,0 +1,180 @@
+package net.mcfr.minecraft;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Réserve de Deflater/Inflater réutilisables, propre à chaque thread. Les flux retournés rendent
+ * leur instance à la réserve à leur fermeture au lieu de la détruire ; {@link #release()} libère
+ * la mémoire native de toutes les instances du thread courant. Les flux compressants utilisent le
+ * niveau et la stratégie d'un objet {@link Compression}, propre au parcours, et alimentent ses
+ * statistiques, dont le temps processeur passé à compresser par chaque thread.
+ * 
+ * @author Mc-Fr
+ */
+public final class CompressionPool {
+  private static final ThreadLocal<Deque<Deflater>> DEFLATERS = ThreadLocal.withInitial(ArrayDeque::new);
+  private static final ThreadLocal<Deque<Inflater>> INFLATERS = ThreadLocal.withInitial(ArrayDeque::new);
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  /**
+   * Crée un flux compressant (zlib) les données vers le flux donné, avec les paramètres par
+   * défaut.
+   * 
+   * @param out le flux de sortie
+   * @return le flux compressant
+   */
+  public static DeflaterOutputStream deflaterStream(OutputStream out) {
+    return deflaterStream(out, new Compression());
+  }
+
+  /**
+   * Crée un flux compressant (zlib) les données vers le flux donné.
+   * 
+   * @param out le flux de sortie
+   * @param compression les paramètres de compression, qui reçoivent les statistiques du flux
+   * @return le flux compressant
+   */
+  public static DeflaterOutputStream deflaterStream(OutputStream out, Compression compression) {
+    Deflater deflater = DEFLATERS.get().poll();
+
+    if (deflater == null)
+      deflater = new Deflater(compression.getLevel());
+    else {
+      deflater.reset();
+      deflater.setLevel(compression.getLevel());
+    }
+    deflater.setStrategy(compression.getStrategy());
+
+    return new PooledDeflaterOutputStream(out, deflater, compression);
+  }
+
+  /**
+   * Crée un flux décompressant (zlib) les données du flux donné.
+   * 
+   * @param in le flux d'entrée
+   * @return le flux décompressant
+   */
+  public static InflaterInputStream inflaterStream(InputStream in) {
+    Inflater inflater = INFLATERS.get().poll();
+
+    if (inflater == null)
+      inflater = new Inflater();
+    else
+      inflater.reset();
+
+    return new PooledInflaterInputStream(in, inflater);
+  }
+
+  /**
+   * Détruit les instances en réserve du thread courant. Les flux encore ouverts ne sont pas
+   * concernés : leur instance sera détruite à leur fermeture.
+   */
+  public static void release() {
+    Deque<Deflater> deflaters = DEFLATERS.get();
+    Deque<Inflater> inflaters = INFLATERS.get();
+
+    while (!deflaters.isEmpty())
+      deflaters.poll().end();
+    while (!inflaters.isEmpty())
+      inflaters.poll().end();
+    DEFLATERS.remove();
+    INFLATERS.remove();
+  }
+
+  /**
+   * Retourne le temps processeur consommé par le thread courant.
+   * 
+   * @return le temps en nanosecondes, ou -1 s'il ne peut pas être mesuré (threads virtuels,
+   *         mesure désactivée)
+   */
+  private static long getCpuTime() {
+    try {
+      return THREADS.getCurrentThreadCpuTime();
+    }
+    catch (UnsupportedOperationException __) {
+      return -1;
+    }
+  }
+
+  private static class PooledDeflaterOutputStream extends DeflaterOutputStream {
+    private final Compression compression;
+    private boolean released;
+
+    public PooledDeflaterOutputStream(OutputStream out, Deflater deflater, Compression compression) {
+      super(out, deflater);
+      this.compression = compression;
+      this.released = false;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      long start = getCpuTime();
+      super.write(b, off, len);
+      addDeflateTime(start);
+    }
+
+    @Override
+    public void finish() throws IOException {
+      long start = getCpuTime();
+      super.finish();
+      addDeflateTime(start);
+    }
+
+    private void addDeflateTime(long start) {
+      if (start != -1) {
+        long end = getCpuTime();
+
+        if (end != -1)
+          this.compression.addDeflateTime(end - start);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      }
+      finally {
+        if (!this.released) {
+          this.released = true;
+          this.compression.addBytes(this.def.getBytesRead(), this.def.getBytesWritten());
+          DEFLATERS.get().push(this.def);
+        }
+      }
+    }
+  }
+
+  private static class PooledInflaterInputStream extends InflaterInputStream {
+    private boolean released;
+
+    public PooledInflaterInputStream(InputStream in, Inflater inflater) {
+      super(in, inflater);
+      this.released = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      }
+      finally {
+        if (!this.released) {
+          this.released = true;
+          INFLATERS.get().push(this.inf);
+        }
+      }
+    }
+  }
+
+  private CompressionPool() {}
+}
@@ -1,6 +1,7 @@
 package net.mcfr.minecraft;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
@@ -8,20 +9,30 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
 
 public class RegionFile {
-  private static final byte[] emptySector = new byte[4096];
   @SuppressWarnings("unused")
   private final File fileName;
   private RandomAccessFile dataFile;
+  /** Channel of dataFile, used for positional (lock-free) reads. */
+  private FileChannel channel;
   private final int[] offsets = new int[1024];
   private final int[] chunkTimestamps = new int[1024];
-  private List<Boolean> sectorFree;
+  private SectorAllocator sectors;
+  /**
+   * Offsets of the sectors released by moved chunks since the header was last written. The header
+   * on disk may still point to them, so they are only given back to the allocator by
+   * {@link #flush()}, called early when no free extent is large enough for a chunk.
+   */
+  private final List<Integer> pendingFrees = new ArrayList<Integer>();
+  /** Whether offsets or chunkTimestamps changed since the header was last written. */
+  private boolean headerDirty;
   /** McRegion sizeDelta */
   @SuppressWarnings("unused")
   private int sizeDelta;
@@ -38,50 +49,38 @@ public class RegionFile {
       }
       
       this.dataFile = new RandomAccessFile(fileNameIn, "rw");
+      this.channel = this.dataFile.getChannel();
       
-      if (this.dataFile.length() < 4096L) {
-        for (int i = 0; i < 1024; ++i) {
-          this.dataFile.writeInt(0);
-        }
-        
-        for (int i1 = 0; i1 < 1024; ++i1) {
-          this.dataFile.writeInt(0);
-        }
-        
-        this.sizeDelta += 8192;
+      if (this.dataFile.length() < 8192L) {
+        this.sizeDelta += 8192 - (int) this.dataFile.length();
+        this.dataFile.setLength(8192L);
       }
       
       if ((this.dataFile.length() & 4095L) != 0L) {
-        for (int j1 = 0; (long) j1 < (this.dataFile.length() & 4095L); ++j1) {
-          this.dataFile.write(0);
-        }
+        this.dataFile.setLength((this.dataFile.length() | 4095L) + 1);
       }
       
-      int k1 = (int) this.dataFile.length() / 4096;
-      this.sectorFree = new ArrayList<Boolean>(k1);
-      
-      for (int j = 0; j < k1; ++j) {
-        this.sectorFree.add(Boolean.valueOf(true));
-      }
+      int k1 = (int) (this.dataFile.length() / 4096);
+      BitSet sectorUsed = new BitSet(k1);
+      ByteBuffer header = ByteBuffer.allocate(8192);
       
-      this.sectorFree.set(0, Boolean.valueOf(false));
-      this.sectorFree.set(1, Boolean.valueOf(false));
-      this.dataFile.seek(0L);
+      sectorUsed.set(0, 2);
+      this.readFully(header, 0L);
+      header.flip();
       
       for (int l1 = 0; l1 < 1024; ++l1) {
-        int k = this.dataFile.readInt();
+        int k = header.getInt();
         this.offsets[l1] = k;
         
-        if (k != 0 && (k >> 8) + (k & 255) <= this.sectorFree.size()) {
-          for (int l = 0; l < (k & 255); ++l) {
-            this.sectorFree.set((k >> 8) + l, Boolean.valueOf(false));
-          }
+        if (k != 0 && (k >> 8) + (k & 255) <= k1) {
+          sectorUsed.set(k >> 8, (k >> 8) + (k & 255));
         }
       }
       
+      this.sectors = new SectorAllocator(sectorUsed, k1);
+      
       for (int i2 = 0; i2 < 1024; ++i2) {
-        int j2 = this.dataFile.readInt();
-        this.chunkTimestamps[i2] = j2;
+        this.chunkTimestamps[i2] = header.getInt();
       }
     }
     catch (IOException ioexception) {
@@ -90,7 +89,7 @@ public class RegionFile {
   }
   
   // This is a copy (sort of) of the method below it, make sure they stay in sync
-  public synchronized boolean chunkExists(int x, int z) {
+  public boolean chunkExists(int x, int z) {
     if (this.outOfBounds(x, z)) return false;
     
     try {
@@ -98,17 +97,15 @@ public class RegionFile {
       
       if (offset == 0) return false;
       
-      int sectorNumber = offset >> 8;
-      int numSectors = offset & 255;
+      ByteBuffer header = ByteBuffer.allocate(5);
       
-      if (sectorNumber + numSectors > this.sectorFree.size()) return false;
+      if (!this.readFully(header, (long) (offset >> 8) * 4096)) return false;
       
-      this.dataFile.seek((long) (sectorNumber * 4096));
-      int length = this.dataFile.readInt();
+      int length = header.getInt(0);
       
-      if (length > 4096 * numSectors || length <= 0) return false;
+      if (length > 4096 * (offset & 255) || length <= 0) return false;
       
-      byte version = this.dataFile.readByte();
+      byte version = header.get(4);
       
       if (version == 1 || version == 2) return true;
     }
@@ -122,7 +119,19 @@ public class RegionFile {
   /**
    * Returns an uncompressed chunk stream from the region file.
    */
-  public synchronized DataInputStream getChunkDataInputStream(int x, int z) {
+  public DataInputStream getChunkDataInputStream(int x, int z) {
+    ByteBuffer data = this.getChunkData(x, z);
+    
+    return data == null ? null : decompressChunkData(data);
+  }
+  
+  /**
+   * Returns the still compressed data of a chunk: the compression type byte followed by the
+   * compressed NBT. The sectors of the chunk are fetched with a single positional read on the file
+   * channel, so several threads may read chunks of the same region concurrently without holding the
+   * monitor of this RegionFile.
+   */
+  public ByteBuffer getChunkData(int x, int z) {
     if (this.outOfBounds(x, z)) {
       return null;
     }
@@ -136,36 +145,23 @@ public class RegionFile {
         else {
           int j = i >> 8;
           int k = i & 255;
+          ByteBuffer buffer = ByteBuffer.allocate(4096 * k);
           
-          if (j + k > this.sectorFree.size()) {
+          if (k == 0 || !this.readFully(buffer, (long) j * 4096)) {
             return null;
           }
           else {
-            this.dataFile.seek((long) (j * 4096));
-            int l = this.dataFile.readInt();
+            int l = buffer.getInt(0);
             
-            if (l > 4096 * k) {
+            if (l > 4096 * k - 4) {
               return null;
             }
             else if (l <= 0) {
               return null;
             }
             else {
-              byte b0 = this.dataFile.readByte();
-              
-              if (b0 == 1) {
-                byte[] abyte1 = new byte[l - 1];
-                this.dataFile.read(abyte1);
-                return new DataInputStream(new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(abyte1))));
-              }
-              else if (b0 == 2) {
-                byte[] abyte = new byte[l - 1];
-                this.dataFile.read(abyte);
-                return new DataInputStream(new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(abyte))));
-              }
-              else {
-                return null;
-              }
+              buffer.position(4).limit(4 + l);
+              return buffer.slice();
             }
           }
         }
@@ -176,12 +172,54 @@ public class RegionFile {
     }
   }
   
+  /**
+   * Returns an uncompressed stream over chunk data returned by {@link #getChunkData(int, int)}, or
+   * null if its compression type is unknown.
+   */
+  public static DataInputStream decompressChunkData(ByteBuffer data) {
+    byte b0 = data.get(0);
+    ByteArrayInputStream in = new ByteArrayInputStream(data.array(), data.arrayOffset() + 1, data.remaining() - 1);
+    
+    try {
+      if (b0 == 1) {
+        return new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+      }
+      else if (b0 == 2) {
+        return new DataInputStream(new BufferedInputStream(CompressionPool.inflaterStream(in)));
+      }
+      else {
+        return null;
+      }
+    }
+    catch (IOException ioexception) {
+      return null;
+    }
+  }
+  
+  /**
+   * Fills the given buffer from the region file starting at the given position, without moving the
+   * file pointer shared with the writers.
+   * 
+   * @return false if the end of the file was reached before the buffer was full
+   */
+  private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int n = this.channel.read(buffer, position + buffer.position());
+      
+      if (n < 0) {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
   /**
    * Returns an output stream used to write chunk data. Data is on disk when the returned stream is
    * closed.
    */
   public DataOutputStream getChunkDataOutputStream(int x, int z) {
-    return this.outOfBounds(x, z) ? null : new DataOutputStream(new DeflaterOutputStream(new RegionFile.ChunkBuffer(x, z)));
+    return this.outOfBounds(x, z) ? null : new DataOutputStream(new BufferedOutputStream(CompressionPool.deflaterStream(new RegionFile.ChunkBuffer(x, z))));
   }
   
   /**
@@ -202,53 +240,26 @@ public class RegionFile {
         this.write(j, data, length);
       }
       else {
-        for (int i1 = 0; i1 < k; ++i1) {
-          this.sectorFree.set(j + i1, Boolean.valueOf(true));
-        }
+        int l1 = this.sectors.allocate(l);
         
-        int l1 = this.sectorFree.indexOf(Boolean.valueOf(true));
-        int j1 = 0;
+        if (l1 == -1 && !this.pendingFrees.isEmpty()) {
+          // The header is written before reusing sectors it may still point to.
+          this.flush();
+          l1 = this.sectors.allocate(l);
+        }
         
-        if (l1 != -1) {
-          for (int k1 = l1; k1 < this.sectorFree.size(); ++k1) {
-            if (j1 != 0) {
-              if (((Boolean) this.sectorFree.get(k1)).booleanValue()) {
-                ++j1;
-              }
-              else {
-                j1 = 0;
-              }
-            }
-            else if (((Boolean) this.sectorFree.get(k1)).booleanValue()) {
-              l1 = k1;
-              j1 = 1;
-            }
-            
-            if (j1 >= l) {
-              break;
-            }
-          }
+        if (j != 0) {
+          this.pendingFrees.add(i);
         }
         
-        if (j1 >= l) {
+        if (l1 != -1) {
           j = l1;
           this.setOffset(x, z, l1 << 8 | l);
-          
-          for (int j2 = 0; j2 < l; ++j2) {
-            this.sectorFree.set(j + j2, Boolean.valueOf(false));
-          }
-          
           this.write(j, data, length);
         }
         else {
-          this.dataFile.seek(this.dataFile.length());
-          j = this.sectorFree.size();
-          
-          for (int i2 = 0; i2 < l; ++i2) {
-            this.dataFile.write(emptySector);
-            this.sectorFree.add(Boolean.valueOf(false));
-          }
-          
+          j = this.sectors.grow(l);
+          this.dataFile.setLength((long) this.sectors.size() * 4096);
           this.sizeDelta += 4096 * l;
           this.write(j, data, length);
           this.setOffset(x, z, j << 8 | l);
@@ -295,28 +306,54 @@ public class RegionFile {
   }
   
   /**
-   * args: x, z, offset - sets the chunk's offset in the region file
+   * args: x, z, offset - sets the chunk's offset in the region file. The header is only written to
+   * disk by {@link #flush()}.
    */
-  private void setOffset(int x, int z, int offset) throws IOException {
+  private void setOffset(int x, int z, int offset) {
     this.offsets[x + z * 32] = offset;
-    this.dataFile.seek((long) ((x + z * 32) * 4));
-    this.dataFile.writeInt(offset);
+    this.headerDirty = true;
   }
   
   /**
-   * args: x, z, timestamp - sets the chunk's write timestamp
+   * args: x, z, timestamp - sets the chunk's write timestamp. The header is only written to disk by
+   * {@link #flush()}.
    */
-  private void setChunkTimestamp(int x, int z, int timestamp) throws IOException {
+  private void setChunkTimestamp(int x, int z, int timestamp) {
     this.chunkTimestamps[x + z * 32] = timestamp;
-    this.dataFile.seek((long) (4096 + (x + z * 32) * 4));
-    this.dataFile.writeInt(timestamp);
+    this.headerDirty = true;
+  }
+  
+  /**
+   * Writes the offsets and timestamps tables (the 8 KB header) to disk in one write, if any chunk
+   * was written since the last flush. The sectors released by the chunks moved since then can be
+   * reused afterwards: until the header is written, the file stays readable as it was.
+   */
+  public synchronized void flush() throws IOException {
+    if (this.headerDirty && this.channel.isOpen()) {
+      ByteBuffer header = ByteBuffer.allocate(8192);
+      
+      header.asIntBuffer().put(this.offsets).put(this.chunkTimestamps);
+      
+      while (header.hasRemaining()) {
+        this.channel.write(header, header.position());
+      }
+      
+      this.headerDirty = false;
+      
+      for (int offset : this.pendingFrees) {
+        this.sectors.free(offset >> 8, offset & 255);
+      }
+      
+      this.pendingFrees.clear();
+    }
   }
   
   /**
    * close this RegionFile and prevent further writes
    */
-  public void close() throws IOException {
+  public synchronized void close() throws IOException {
     if (this.dataFile != null) {
+      this.flush();
       this.dataFile.close();
     }
   }
@@ -4,11 +4,21 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
+/**
+ * Keeps the region files open between accesses. Once 256 files are open, the files that are not in
+ * use are closed before opening a new one; a file is in use between
+ * {@link #acquireRegionFile(File, int, int)} and {@link #releaseRegionFile(RegionFile)}, which the
+ * static accessors below call around each read or write.
+ */
 public class RegionFileCache {
   private static final Map<File, RegionFile> regionsByFilename = new HashMap<File, RegionFile>();
+  /** The number of pending accesses to each open region file in use. */
+  private static final Map<RegionFile, Integer> usersByRegionFile = new HashMap<RegionFile, Integer>();
   
   public static synchronized RegionFile createOrLoadRegionFile(File worldDir, int chunkX, int chunkZ) {
     File file1 = new File(worldDir, "region");
@@ -24,7 +34,7 @@ public class RegionFileCache {
       }
       
       if (regionsByFilename.size() >= 256) {
-        clearRegionFileReferences();
+        closeIdleRegionFiles();
       }
       
       RegionFile regionfile1 = new RegionFile(file2);
@@ -33,6 +43,54 @@ public class RegionFileCache {
     }
   }
   
+  /**
+   * Returns the region file containing the specified chunk and marks it as in use: it is not closed
+   * to make room for other files until the matching call to {@link #releaseRegionFile(RegionFile)}.
+   * Args: worldDir, chunkX, chunkZ
+   */
+  public static synchronized RegionFile acquireRegionFile(File worldDir, int chunkX, int chunkZ) {
+    RegionFile regionfile = createOrLoadRegionFile(worldDir, chunkX, chunkZ);
+    
+    usersByRegionFile.merge(regionfile, 1, Integer::sum);
+    return regionfile;
+  }
+  
+  /**
+   * Ends an access started by {@link #acquireRegionFile(File, int, int)}. Args: regionfile
+   */
+  public static synchronized void releaseRegionFile(RegionFile regionfile) {
+    usersByRegionFile.computeIfPresent(regionfile, (key, users) -> users == 1 ? null : users - 1);
+  }
+  
+  /**
+   * closes the region files that are not in use
+   */
+  private static void closeIdleRegionFiles() {
+    Iterator<RegionFile> iterator = regionsByFilename.values().iterator();
+    
+    while (iterator.hasNext()) {
+      RegionFile regionfile = iterator.next();
+      
+      if (!usersByRegionFile.containsKey(regionfile)) {
+        try {
+          regionfile.close();
+        }
+        catch (IOException ioexception) {
+          ioexception.printStackTrace();
+        }
+        iterator.remove();
+      }
+    }
+  }
+  
+  /**
+   * Returns whether the region file containing the specified chunk exists, without creating it.
+   * Args: worldDir, chunkX, chunkZ
+   */
+  public static boolean regionFileExists(File worldDir, int chunkX, int chunkZ) {
+    return new File(new File(worldDir, "region"), "r." + (chunkX >> 5) + "." + (chunkZ >> 5) + ".mca").exists();
+  }
+  
   /**
    * clears region file references
    */
@@ -49,21 +107,135 @@ public class RegionFileCache {
     }
     
     regionsByFilename.clear();
+    usersByRegionFile.clear();
+  }
+  
+  /**
+   * clears the references to the region files of the given world only, leaving the other worlds
+   * open. Args: worldDir
+   */
+  public static synchronized void clearRegionFileReferences(File worldDir) {
+    File regionDir = new File(worldDir, "region");
+    Iterator<Map.Entry<File, RegionFile>> iterator = regionsByFilename.entrySet().iterator();
+    
+    while (iterator.hasNext()) {
+      Map.Entry<File, RegionFile> entry = iterator.next();
+      
+      if (regionDir.equals(entry.getKey().getParentFile())) {
+        try {
+          entry.getValue().close();
+        }
+        catch (IOException ioexception) {
+          ioexception.printStackTrace();
+        }
+        usersByRegionFile.remove(entry.getValue());
+        iterator.remove();
+      }
+    }
+  }
+  
+  /**
+   * Writes the header of the region file containing the specified chunk. Args: worldDir, chunkX,
+   * chunkZ
+   */
+  public static void flushRegionFile(File worldDir, int chunkX, int chunkZ) throws IOException {
+    RegionFile regionfile = acquireRegionFile(worldDir, chunkX, chunkZ);
+    
+    try {
+      regionfile.flush();
+    }
+    finally {
+      releaseRegionFile(regionfile);
+    }
+  }
+  
+  /**
+   * Returns whether the specified chunk has been saved in its region file. Args: worldDir, chunkX,
+   * chunkZ
+   */
+  public static boolean isChunkSaved(File worldDir, int chunkX, int chunkZ) {
+    RegionFile regionfile = acquireRegionFile(worldDir, chunkX, chunkZ);
+    
+    try {
+      return regionfile.isChunkSaved(chunkX & 31, chunkZ & 31);
+    }
+    finally {
+      releaseRegionFile(regionfile);
+    }
   }
   
   /**
    * Returns an input stream for the specified chunk. Args: worldDir, chunkX, chunkZ
    */
   public static DataInputStream getChunkInputStream(File worldDir, int chunkX, int chunkZ) {
-    RegionFile regionfile = createOrLoadRegionFile(worldDir, chunkX, chunkZ);
-    return regionfile.getChunkDataInputStream(chunkX & 31, chunkZ & 31);
+    RegionFile regionfile = acquireRegionFile(worldDir, chunkX, chunkZ);
+    
+    try {
+      return regionfile.getChunkDataInputStream(chunkX & 31, chunkZ & 31);
+    }
+    finally {
+      releaseRegionFile(regionfile);
+    }
   }
   
   /**
-   * Returns an output stream for the specified chunk. Args: worldDir, chunkX, chunkZ
+   * Returns the compressed data of the specified chunk, see {@link RegionFile#getChunkData(int, int)}.
+   * Args: worldDir, chunkX, chunkZ
+   */
+  public static ByteBuffer getChunkData(File worldDir, int chunkX, int chunkZ) {
+    RegionFile regionfile = acquireRegionFile(worldDir, chunkX, chunkZ);
+    
+    try {
+      return regionfile.getChunkData(chunkX & 31, chunkZ & 31);
+    }
+    finally {
+      releaseRegionFile(regionfile);
+    }
+  }
+  
+  /**
+   * Writes already deflated data for the specified chunk. Args: worldDir, chunkX, chunkZ, data,
+   * length
+   */
+  public static void writeChunkData(File worldDir, int chunkX, int chunkZ, byte[] data, int length) {
+    RegionFile regionfile = acquireRegionFile(worldDir, chunkX, chunkZ);
+    
+    try {
+      regionfile.write(chunkX & 31, chunkZ & 31, data, length);
+    }
+    finally {
+      releaseRegionFile(regionfile);
+    }
+  }
+  
+  /**
+   * Returns an output stream for the specified chunk. The region file stays in use until the stream
+   * is closed. Args: worldDir, chunkX, chunkZ
    */
   public static DataOutputStream getChunkOutputStream(File worldDir, int chunkX, int chunkZ) {
-    RegionFile regionfile = createOrLoadRegionFile(worldDir, chunkX, chunkZ);
-    return regionfile.getChunkDataOutputStream(chunkX & 31, chunkZ & 31);
+    RegionFile regionfile = acquireRegionFile(worldDir, chunkX, chunkZ);
+    DataOutputStream out = regionfile.getChunkDataOutputStream(chunkX & 31, chunkZ & 31);
+    
+    if (out == null) {
+      releaseRegionFile(regionfile);
+      return null;
+    }
+    
+    return new DataOutputStream(out) {
+      private boolean released;
+      
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        }
+        finally {
+          if (!this.released) {
+            this.released = true;
+            releaseRegionFile(regionfile);
+          }
+        }
+      }
+    };
   }
 }
\ No newline at end of file
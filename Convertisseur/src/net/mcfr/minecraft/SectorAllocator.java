@@ -0,0 +1,140 @@
+package net.mcfr.minecraft;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Allocateur des secteurs d'un fichier de région. Les secteurs libres sont regroupés en plages
+ * contiguës indexées à la fois par position et par taille, ce qui permet de trouver la plus petite
+ * plage suffisante (best-fit) et de fusionner les plages libérées en O(log n).
+ * 
+ * @author Mc-Fr
+ */
+class SectorAllocator {
+  /** Les plages libres indexées par premier secteur, associées à leur longueur. */
+  private final TreeMap<Integer, Integer> extentsByStart;
+  /** Les plages libres triées par longueur puis par position ({@code longueur << 32 | début}). */
+  private final TreeSet<Long> extentsBySize;
+  /** Le nombre total de secteurs du fichier. */
+  private int size;
+
+  /**
+   * Crée un allocateur à partir de la carte des secteurs occupés.
+   * 
+   * @param used les secteurs occupés
+   * @param size le nombre total de secteurs du fichier
+   */
+  public SectorAllocator(BitSet used, int size) {
+    this.extentsByStart = new TreeMap<>();
+    this.extentsBySize = new TreeSet<>();
+    this.size = size;
+
+    int start = used.nextClearBit(0);
+    while (start < size) {
+      int next = used.nextSetBit(start);
+      int end = next < 0 || next > size ? size : next;
+      addExtent(start, end - start);
+      start = used.nextClearBit(end);
+    }
+  }
+
+  /**
+   * @return le nombre total de secteurs du fichier
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Réserve la plus petite plage libre d'au moins count secteurs.
+   * 
+   * @param count le nombre de secteurs
+   * @return le premier secteur de la plage, ou -1 si aucune plage n'est assez grande
+   */
+  public int allocate(int count) {
+    Long extent = this.extentsBySize.ceiling((long) count << 32);
+
+    if (extent == null)
+      return -1;
+
+    int start = (int) (extent & 0xffffffffL);
+    int length = (int) (extent >>> 32);
+
+    removeExtent(start, length);
+    if (length > count)
+      addExtent(start + count, length - count);
+
+    return start;
+  }
+
+  /**
+   * Ajoute count secteurs occupés à la fin du fichier.
+   * 
+   * @param count le nombre de secteurs
+   * @return le premier des nouveaux secteurs
+   */
+  public int grow(int count) {
+    int start = this.size;
+    this.size += count;
+    return start;
+  }
+
+  /**
+   * Libère une plage de secteurs et la fusionne avec les plages libres adjacentes. Les secteurs
+   * situés hors du fichier ou déjà libres sont ignorés.
+   * 
+   * @param start le premier secteur
+   * @param count le nombre de secteurs
+   */
+  public void free(int start, int count) {
+    int end = Math.min(start + count, this.size);
+
+    if (start >= end)
+      return;
+
+    Map.Entry<Integer, Integer> lower = this.extentsByStart.floorEntry(start);
+    if (lower != null && lower.getKey() + lower.getValue() >= start) {
+      removeExtent(lower.getKey(), lower.getValue());
+      end = Math.max(end, lower.getKey() + lower.getValue());
+      start = lower.getKey();
+    }
+
+    Map.Entry<Integer, Integer> higher;
+    while ((higher = this.extentsByStart.ceilingEntry(start)) != null && higher.getKey() <= end) {
+      removeExtent(higher.getKey(), higher.getValue());
+      end = Math.max(end, higher.getKey() + higher.getValue());
+    }
+
+    addExtent(start, end - start);
+  }
+
+  /**
+   * Indique si le secteur donné est libre.
+   * 
+   * @param sector le secteur
+   * @return true si le secteur est libre
+   */
+  public boolean isFree(int sector) {
+    Map.Entry<Integer, Integer> extent = this.extentsByStart.floorEntry(sector);
+    return extent != null && sector < extent.getKey() + extent.getValue();
+  }
+
+  /**
+   * @return le nombre de plages libres
+   */
+  public int getFreeExtentsCount() {
+    return this.extentsByStart.size();
+  }
+
+  private void addExtent(int start, int length) {
+    this.extentsByStart.put(start, length);
+    this.extentsBySize.add((long) length << 32 | start);
+  }
+
+  private void removeExtent(int start, int length) {
+    this.extentsByStart.remove(start);
+    this.extentsBySize.remove((long) length << 32 | start);
+  }
+}
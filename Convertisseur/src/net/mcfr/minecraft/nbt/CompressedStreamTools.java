@@ -94,6 +94,32 @@ public class CompressedStreamTools {
     }
   }
   
+  /**
+   * Reads the given DataInput as a stream of events sent to the visitor, without building the
+   * compound. See {@link NBTStreamReader} to keep the array buffers from one read to the next.
+   */
+  public static void visit(DataInput in, NBTVisitor visitor) throws IOException {
+    new NBTStreamReader().accept(in, visitor);
+  }
+  
+  /**
+   * Reads the root compound held by the first bytes of the buffer, decoding each compound entry
+   * only on its first access. The entries that are never accessed are written back by copying
+   * their bytes. The buffer must not be modified while the compound is in use.
+   */
+  public static NBTTagCompound readLazy(byte[] buffer, int length) throws IOException {
+    NBTLazyValue.Input in = new NBTLazyValue.Input(buffer, 0, length);
+    
+    if (in.readByte() != NBTBase.COMPOUND) {
+      throw new IOException("Root tag must be a named compound tag");
+    }
+    
+    in.readUTF();
+    NBTTagCompound nbttagcompound = new NBTTagCompound();
+    nbttagcompound.read(in, 0, NBTSizeTracker.INFINITE);
+    return nbttagcompound;
+  }
+  
   public static void write(NBTTagCompound compound, DataOutput out) throws IOException {
     writeTag(compound, out);
   }
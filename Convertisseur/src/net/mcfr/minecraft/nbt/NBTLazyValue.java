@@ -0,0 +1,298 @@
+package net.mcfr.minecraft.nbt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The still serialized value of a compound entry read by
+ * {@link CompressedStreamTools#readLazy(byte[], int)}: a slice of the buffer holding the data.
+ * The compound replaces it with the decoded tag on first access; a value that is never accessed is
+ * written back as is. The buffer must not be modified while the value is in use; {@link #copy()}
+ * gives a value holding its own bytes.
+ */
+final class NBTLazyValue extends NBTBase {
+  private final byte type;
+  private byte[] buffer;
+  private int offset;
+  private int length;
+  private int depth;
+  
+  NBTLazyValue(byte type, byte[] buffer, int offset, int length, int depth) {
+    this.type = type;
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+    this.depth = depth;
+  }
+  
+  /**
+   * Decodes the value. The numbers and arrays are read directly from the buffer; the compounds it
+   * contains, itself included, are read lazily.
+   */
+  NBTBase decode() {
+    switch (this.type) {
+      case BYTE:
+        return new NBTTagByte(this.buffer[this.offset]);
+      case SHORT:
+        return new NBTTagShort((short) (this.buffer[this.offset] << 8 | this.buffer[this.offset + 1] & 255));
+      case INT:
+        return new NBTTagInt(getInt(this.buffer, this.offset));
+      case LONG:
+        return new NBTTagLong(getLong(this.buffer, this.offset));
+      case FLOAT:
+        return new NBTTagFloat(Float.intBitsToFloat(getInt(this.buffer, this.offset)));
+      case DOUBLE:
+        return new NBTTagDouble(Double.longBitsToDouble(getLong(this.buffer, this.offset)));
+      case BYTE_A:
+        return new NBTTagByteArray(Arrays.copyOfRange(this.buffer, this.offset + 4, this.offset + this.length));
+      case INT_A: {
+        int[] array = new int[(this.length - 4) / 4];
+        
+        for (int i = 0; i < array.length; i++) {
+          array[i] = getInt(this.buffer, this.offset + 4 + 4 * i);
+        }
+        
+        return new NBTTagIntArray(array);
+      }
+      default:
+        return this.read();
+    }
+  }
+  
+  private static int getInt(byte[] buffer, int index) {
+    return buffer[index] << 24 | (buffer[index + 1] & 255) << 16 | (buffer[index + 2] & 255) << 8 | buffer[index + 3] & 255;
+  }
+  
+  private static long getLong(byte[] buffer, int index) {
+    return (long) getInt(buffer, index) << 32 | getInt(buffer, index + 4) & 0xffffffffL;
+  }
+  
+  private static int getLength(byte[] buffer, int index) throws IOException {
+    int length = getInt(buffer, index);
+    
+    if (length < 0) {
+      throw new IOException("Negative length " + length);
+    }
+    
+    return length;
+  }
+  
+  /**
+   * Gets the size of the values of the given type, or 0 if it is variable.
+   */
+  private static int getFixedSize(byte type) {
+    switch (type) {
+      case BYTE:
+        return 1;
+      case SHORT:
+        return 2;
+      case INT:
+      case FLOAT:
+        return 4;
+      case LONG:
+      case DOUBLE:
+        return 8;
+      default:
+        return 0;
+    }
+  }
+  
+  /**
+   * Gets the index following the value of the given type starting at the given index of the buffer.
+   * Only the headers of the values are read: arrays and lists of numbers are skipped at once.
+   */
+  private static int skipValue(byte[] buffer, int index, byte type, int depth) throws IOException {
+    int size = getFixedSize(type);
+    
+    if (size != 0) {
+      return index + size;
+    }
+    
+    switch (type) {
+      case BYTE_A:
+        return index + 4 + getLength(buffer, index);
+      case STRING:
+        return index + 2 + ((buffer[index] & 255) << 8 | buffer[index + 1] & 255);
+      case LIST: {
+        if (depth > 512) {
+          throw new RuntimeException("Tried to read NBT tag with too high complexity, depth > 512");
+        }
+        
+        byte elementType = buffer[index];
+        int length = Math.max(getInt(buffer, index + 1), 0);
+        int elementSize = getFixedSize(elementType);
+        index += 5;
+        
+        if (elementSize != 0) {
+          return index + length * elementSize;
+        }
+        
+        for (int i = 0; i < length; i++) {
+          index = skipValue(buffer, index, elementType, depth + 1);
+        }
+        
+        return index;
+      }
+      case COMPOUND: {
+        if (depth > 512) {
+          throw new RuntimeException("Tried to read NBT tag with too high complexity, depth > 512");
+        }
+        
+        byte entryType;
+        
+        while ((entryType = buffer[index++]) != END) {
+          index += 2 + ((buffer[index] & 255) << 8 | buffer[index + 1] & 255);
+          index = skipValue(buffer, index, entryType, depth + 1);
+        }
+        
+        return index;
+      }
+      case INT_A:
+        return index + 4 + 4 * getLength(buffer, index);
+      default:
+        throw new IOException("Invalid tag type " + type);
+    }
+  }
+  
+  /**
+   * Decodes the value through an {@link Input}.
+   */
+  private NBTBase read() {
+    NBTBase nbtbase = NBTBase.createNewByType(this.type);
+    
+    try {
+      nbtbase.read(new Input(this.buffer, this.offset, this.length), this.depth, NBTSizeTracker.INFINITE);
+      return nbtbase;
+    }
+    catch (IOException ex) {
+      throw new RuntimeException("Tag type: " + Byte.valueOf(this.type), ex);
+    }
+  }
+  
+  /**
+   * Copies the serialized value.
+   */
+  @Override
+  void write(DataOutput output) throws IOException {
+    output.write(this.buffer, this.offset, this.length);
+  }
+  
+  /**
+   * Reads a value of the type of this one and keeps it serialized in a buffer of its own.
+   */
+  @Override
+  void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
+    NBTBase nbtbase = NBTBase.createNewByType(this.type);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    
+    nbtbase.read(input, depth, sizeTracker);
+    nbtbase.write(new DataOutputStream(out));
+    this.buffer = out.toByteArray();
+    this.offset = 0;
+    this.length = this.buffer.length;
+    this.depth = depth;
+  }
+  
+  /**
+   * Gets the type byte of the value.
+   */
+  @Override
+  public byte getId() {
+    return this.type;
+  }
+  
+  @Override
+  public String toString() {
+    return this.decode().toString();
+  }
+  
+  /**
+   * Creates a clone of the value holding a copy of its bytes, which stays valid when the buffer of
+   * this value is reused.
+   */
+  @Override
+  public NBTBase copy() {
+    return new NBTLazyValue(this.type, Arrays.copyOfRange(this.buffer, this.offset, this.offset + this.length), 0, this.length, this.depth);
+  }
+  
+  @Override
+  public boolean equals(Object o) {
+    return this.decode().equals(o instanceof NBTLazyValue ? ((NBTLazyValue) o).decode() : o);
+  }
+  
+  @Override
+  public int hashCode() {
+    return this.decode().hashCode();
+  }
+  
+  /**
+   * An input reading a slice of a buffer and knowing its position in it. Compounds read from such
+   * an input keep their entry values serialized.
+   */
+  static class Input extends DataInputStream {
+    private final Slice slice;
+    
+    Input(byte[] buffer, int offset, int length) {
+      this(new Slice(buffer, offset, length));
+    }
+    
+    private Input(Slice slice) {
+      super(slice);
+      this.slice = slice;
+    }
+    
+    /**
+     * Reads past a value without decoding it.
+     * 
+     * @param type the type of the value
+     * @param depth the depth of the value
+     * @return the serialized value
+     */
+    NBTLazyValue readLazyValue(byte type, int depth) throws IOException {
+      int offset = this.slice.getPosition(), end;
+      
+      try {
+        end = skipValue(this.slice.getBuffer(), offset, type, depth);
+      }
+      catch (ArrayIndexOutOfBoundsException ex) {
+        throw new EOFException();
+      }
+      
+      if (end < offset || end > this.slice.getLimit()) {
+        throw new EOFException();
+      }
+      
+      this.slice.setPosition(end);
+      return new NBTLazyValue(type, this.slice.getBuffer(), offset, end - offset, depth);
+    }
+  }
+  
+  private static class Slice extends ByteArrayInputStream {
+    Slice(byte[] buffer, int offset, int length) {
+      super(buffer, offset, length);
+    }
+    
+    byte[] getBuffer() {
+      return this.buf;
+    }
+    
+    int getPosition() {
+      return this.pos;
+    }
+    
+    void setPosition(int position) {
+      this.pos = position;
+    }
+    
+    int getLimit() {
+      return this.count;
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package net.mcfr.minecraft.nbt;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Reads NBT data as a stream of events sent to a {@link NBTVisitor}, without building the tag tree.
+ * The array buffers are kept from one read to the next: a reader used for many chunks only
+ * allocates the keys and the strings. An instance must not be shared between threads.
+ */
+public class NBTStreamReader {
+  private byte[] bytes;
+  private int[] ints;
+  
+  public NBTStreamReader() {
+    this.bytes = new byte[4096];
+    this.ints = new int[256];
+  }
+  
+  /**
+   * Reads a named root compound, as written by {@link CompressedStreamTools#write(NBTTagCompound,
+   * java.io.DataOutput)}.
+   * 
+   * @param in the input
+   * @param visitor the visitor receiving the events
+   * @throws IOException if the data could not be read or the root is not a compound
+   */
+  public void accept(DataInput in, NBTVisitor visitor) throws IOException {
+    if (in.readByte() != NBTBase.COMPOUND) {
+      throw new IOException("Root tag must be a named compound tag");
+    }
+    
+    in.readUTF();
+    this.readCompound(in, visitor, 0);
+  }
+  
+  private void readValue(DataInput in, byte type, NBTVisitor visitor, int depth) throws IOException {
+    switch (type) {
+      case NBTBase.BYTE:
+        visitor.visitByte(in.readByte());
+        break;
+      case NBTBase.SHORT:
+        visitor.visitShort(in.readShort());
+        break;
+      case NBTBase.INT:
+        visitor.visitInt(in.readInt());
+        break;
+      case NBTBase.LONG:
+        visitor.visitLong(in.readLong());
+        break;
+      case NBTBase.FLOAT:
+        visitor.visitFloat(in.readFloat());
+        break;
+      case NBTBase.DOUBLE:
+        visitor.visitDouble(in.readDouble());
+        break;
+      case NBTBase.BYTE_A: {
+        int length = readLength(in);
+        
+        if (this.bytes.length < length) {
+          this.bytes = new byte[length];
+        }
+        
+        in.readFully(this.bytes, 0, length);
+        visitor.visitByteArray(this.bytes, length);
+        break;
+      }
+      case NBTBase.STRING:
+        visitor.visitString(in.readUTF());
+        break;
+      case NBTBase.LIST:
+        this.readList(in, visitor, depth);
+        break;
+      case NBTBase.COMPOUND:
+        this.readCompound(in, visitor, depth);
+        break;
+      case NBTBase.INT_A: {
+        int length = readLength(in);
+        
+        if (this.ints.length < length) {
+          this.ints = new int[length];
+        }
+        
+        for (int i = 0; i < length; i++) {
+          this.ints[i] = in.readInt();
+        }
+        
+        visitor.visitIntArray(this.ints, length);
+        break;
+      }
+      default:
+        throw new IOException("Invalid tag type " + type);
+    }
+  }
+  
+  private void readCompound(DataInput in, NBTVisitor visitor, int depth) throws IOException {
+    checkDepth(depth);
+    visitor.startCompound();
+    byte type;
+    
+    while ((type = in.readByte()) != NBTBase.END) {
+      String key = in.readUTF();
+      
+      if (visitor.visitEntry(type, key)) {
+        this.readValue(in, type, visitor, depth + 1);
+      }
+      else {
+        skipValue(in, type, depth + 1);
+      }
+    }
+    
+    visitor.endCompound();
+  }
+  
+  private void readList(DataInput in, NBTVisitor visitor, int depth) throws IOException {
+    checkDepth(depth);
+    byte type = in.readByte();
+    int length = in.readInt();
+    
+    if (!visitor.startList(type, Math.max(length, 0))) {
+      for (int i = 0; i < length; i++) {
+        skipValue(in, type, depth + 1);
+      }
+    }
+    else {
+      for (int i = 0; i < length; i++) {
+        this.readValue(in, type, visitor, depth + 1);
+      }
+      
+      visitor.endList();
+    }
+  }
+  
+  /**
+   * Reads past a value without decoding it.
+   */
+  private static void skipValue(DataInput in, byte type, int depth) throws IOException {
+    switch (type) {
+      case NBTBase.BYTE:
+        skipBytes(in, 1);
+        break;
+      case NBTBase.SHORT:
+        skipBytes(in, 2);
+        break;
+      case NBTBase.INT:
+      case NBTBase.FLOAT:
+        skipBytes(in, 4);
+        break;
+      case NBTBase.LONG:
+      case NBTBase.DOUBLE:
+        skipBytes(in, 8);
+        break;
+      case NBTBase.BYTE_A:
+        skipBytes(in, readLength(in));
+        break;
+      case NBTBase.STRING:
+        skipBytes(in, in.readUnsignedShort());
+        break;
+      case NBTBase.LIST: {
+        checkDepth(depth);
+        byte elementType = in.readByte();
+        int length = in.readInt();
+        
+        for (int i = 0; i < length; i++) {
+          skipValue(in, elementType, depth + 1);
+        }
+        
+        break;
+      }
+      case NBTBase.COMPOUND: {
+        checkDepth(depth);
+        byte entryType;
+        
+        while ((entryType = in.readByte()) != NBTBase.END) {
+          skipBytes(in, in.readUnsignedShort());
+          skipValue(in, entryType, depth + 1);
+        }
+        
+        break;
+      }
+      case NBTBase.INT_A:
+        skipBytes(in, 4 * readLength(in));
+        break;
+      default:
+        throw new IOException("Invalid tag type " + type);
+    }
+  }
+  
+  private static int readLength(DataInput in) throws IOException {
+    int length = in.readInt();
+    
+    if (length < 0) {
+      throw new IOException("Negative array length " + length);
+    }
+    
+    return length;
+  }
+  
+  private static void skipBytes(DataInput in, int n) throws IOException {
+    if (in.skipBytes(n) != n) {
+      throw new EOFException();
+    }
+  }
+  
+  private static void checkDepth(int depth) {
+    if (depth > 512) {
+      throw new RuntimeException("Tried to read NBT tag with too high complexity, depth > 512");
+    }
+  }
+}
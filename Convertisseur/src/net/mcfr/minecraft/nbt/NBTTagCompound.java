@@ -34,6 +34,9 @@ public class NBTTagCompound extends NBTBase {
     if (depth > 512) {
       throw new RuntimeException("Tried to read NBT tag with too high complexity, depth > 512");
     }
+    else if (input instanceof NBTLazyValue.Input) {
+      this.readLazy((NBTLazyValue.Input) input, depth);
+    }
     else {
       this.tagMap.clear();
       byte b;
@@ -50,6 +53,45 @@ public class NBTTagCompound extends NBTBase {
     }
   }
   
+  /**
+   * Reads the entries without decoding their values, which are kept as slices of the buffer of the
+   * input until their first access.
+   */
+  private void readLazy(NBTLazyValue.Input input, int depth) throws IOException {
+    this.tagMap.clear();
+    byte b;
+    
+    while ((b = input.readByte()) != 0) {
+      String s = input.readUTF();
+      this.tagMap.put(s, input.readLazyValue(b, depth + 1));
+    }
+  }
+  
+  /**
+   * Gets the tag with the given key, decoding it if it is still serialized.
+   */
+  private NBTBase get(String key) {
+    NBTBase nbtbase = this.tagMap.get(key);
+    
+    if (nbtbase instanceof NBTLazyValue) {
+      nbtbase = ((NBTLazyValue) nbtbase).decode();
+      this.tagMap.put(key, nbtbase);
+    }
+    
+    return nbtbase;
+  }
+  
+  /**
+   * Decodes all the values that are still serialized.
+   */
+  private void decodeAll() {
+    for (Entry<String, NBTBase> entry : this.tagMap.entrySet()) {
+      if (entry.getValue() instanceof NBTLazyValue) {
+        entry.setValue(((NBTLazyValue) entry.getValue()).decode());
+      }
+    }
+  }
+  
   public Set<String> getKeySet() {
     return this.tagMap.keySet();
   }
@@ -147,7 +189,7 @@ public class NBTTagCompound extends NBTBase {
    * gets a generic tag with the specified name
    */
   public NBTBase getTag(String key) {
-    return this.tagMap.get(key);
+    return this.get(key);
   }
   
   /**
@@ -184,7 +226,7 @@ public class NBTTagCompound extends NBTBase {
    */
   public byte getByte(String key) {
     try {
-      return !hasKey(key, 99) ? 0 : ((NBTBase.NBTPrimitive) this.tagMap.get(key)).getByte();
+      return !hasKey(key, 99) ? 0 : ((NBTBase.NBTPrimitive) this.get(key)).getByte();
     }
     catch (ClassCastException ex) {
       return (byte) 0;
@@ -196,7 +238,7 @@ public class NBTTagCompound extends NBTBase {
    */
   public short getShort(String key) {
     try {
-      return !hasKey(key, 99) ? 0 : ((NBTBase.NBTPrimitive) this.tagMap.get(key)).getShort();
+      return !hasKey(key, 99) ? 0 : ((NBTBase.NBTPrimitive) this.get(key)).getShort();
     }
     catch (ClassCastException ex) {
       return (short) 0;
@@ -208,7 +250,7 @@ public class NBTTagCompound extends NBTBase {
    */
   public int getInteger(String key) {
     try {
-      return !hasKey(key, 99) ? 0 : ((NBTBase.NBTPrimitive) this.tagMap.get(key)).getInt();
+      return !hasKey(key, 99) ? 0 : ((NBTBase.NBTPrimitive) this.get(key)).getInt();
     }
     catch (ClassCastException ex) {
       return 0;
@@ -220,7 +262,7 @@ public class NBTTagCompound extends NBTBase {
    */
   public long getLong(String key) {
     try {
-      return !hasKey(key, 99) ? 0 : ((NBTBase.NBTPrimitive) this.tagMap.get(key)).getLong();
+      return !hasKey(key, 99) ? 0 : ((NBTBase.NBTPrimitive) this.get(key)).getLong();
     }
     catch (ClassCastException ex) {
       return 0;
@@ -232,7 +274,7 @@ public class NBTTagCompound extends NBTBase {
    */
   public float getFloat(String key) {
     try {
-      return !hasKey(key, 99) ? 0 : ((NBTBase.NBTPrimitive) this.tagMap.get(key)).getFloat();
+      return !hasKey(key, 99) ? 0 : ((NBTBase.NBTPrimitive) this.get(key)).getFloat();
     }
     catch (ClassCastException ex) {
       return 0;
@@ -244,7 +286,7 @@ public class NBTTagCompound extends NBTBase {
    */
   public double getDouble(String key) {
     try {
-      return !hasKey(key, 99) ? 0 : ((NBTBase.NBTPrimitive) this.tagMap.get(key)).getDouble();
+      return !hasKey(key, 99) ? 0 : ((NBTBase.NBTPrimitive) this.get(key)).getDouble();
     }
     catch (ClassCastException ex) {
       return 0;
@@ -256,7 +298,7 @@ public class NBTTagCompound extends NBTBase {
    */
   public String getString(String key) {
     try {
-      return !hasKey(key, STRING) ? "" : ((NBTBase) this.tagMap.get(key)).getString();
+      return !hasKey(key, STRING) ? "" : ((NBTBase) this.get(key)).getString();
     }
     catch (ClassCastException ex) {
       return "";
@@ -269,7 +311,7 @@ public class NBTTagCompound extends NBTBase {
    */
   public byte[] getByteArray(String key) {
     try {
-      return !hasKey(key, BYTE_A) ? new byte[0] : ((NBTTagByteArray) this.tagMap.get(key)).getByteArray();
+      return !hasKey(key, BYTE_A) ? new byte[0] : ((NBTTagByteArray) this.get(key)).getByteArray();
     }
     catch (ClassCastException ex) {
       throw new RuntimeException(this.createCrashReport(key, BYTE_A, ex), ex);
@@ -282,7 +324,7 @@ public class NBTTagCompound extends NBTBase {
    */
   public int[] getIntArray(String key) {
     try {
-      return !hasKey(key, INT_A) ? new int[0] : ((NBTTagIntArray) this.tagMap.get(key)).getIntArray();
+      return !hasKey(key, INT_A) ? new int[0] : ((NBTTagIntArray) this.get(key)).getIntArray();
     }
     catch (ClassCastException ex) {
       throw new RuntimeException(this.createCrashReport(key, INT_A, ex), ex);
@@ -295,7 +337,7 @@ public class NBTTagCompound extends NBTBase {
    */
   public NBTTagCompound getCompoundTag(String key) {
     try {
-      return !hasKey(key, COMPOUND) ? new NBTTagCompound() : (NBTTagCompound) this.tagMap.get(key);
+      return !hasKey(key, COMPOUND) ? new NBTTagCompound() : (NBTTagCompound) this.get(key);
     }
     catch (ClassCastException ex) {
       throw new RuntimeException(this.createCrashReport(key, COMPOUND, ex), ex);
@@ -311,7 +353,7 @@ public class NBTTagCompound extends NBTBase {
         return new NBTTagList();
       }
       else {
-        NBTTagList nbttaglist = (NBTTagList) this.tagMap.get(key);
+        NBTTagList nbttaglist = (NBTTagList) this.get(key);
         return nbttaglist.tagCount() > 0 && nbttaglist.getTagType() != type ? new NBTTagList() : nbttaglist;
       }
     }
@@ -385,6 +427,8 @@ public class NBTTagCompound extends NBTBase {
   @Override
   public boolean equals(Object o) {
     if (super.equals(o)) {
+      this.decodeAll();
+      ((NBTTagCompound) o).decodeAll();
       return this.tagMap.entrySet().equals(((NBTTagCompound) o).tagMap.entrySet());
     }
     return false;
@@ -392,6 +436,7 @@ public class NBTTagCompound extends NBTBase {
   
   @Override
   public int hashCode() {
+    this.decodeAll();
     return super.hashCode() ^ this.tagMap.hashCode();
   }
   
@@ -432,7 +477,7 @@ public class NBTTagCompound extends NBTBase {
    */
   public void merge(NBTTagCompound other) {
     for (String s : other.tagMap.keySet()) {
-      NBTBase nbtbase = other.tagMap.get(s);
+      NBTBase nbtbase = other.get(s);
       
       if (nbtbase.getId() == COMPOUND) {
         if (hasKey(s, COMPOUND)) {
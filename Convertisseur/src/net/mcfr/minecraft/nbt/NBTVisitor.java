@@ -0,0 +1,75 @@
+package net.mcfr.minecraft.nbt;
+
+/**
+ * Receives the events of {@link NBTStreamReader}, in the order of the serialized data, without any
+ * tag being built. Every method does nothing by default.
+ * <p>
+ * The values of the named entries of a compound are preceded by {@link #visitEntry(byte, String)},
+ * which may skip them; the elements of a list are not. The arrays passed to
+ * {@link #visitByteArray(byte[], int)} and {@link #visitIntArray(int[], int)} are buffers of the
+ * reader, only valid during the call.
+ */
+public interface NBTVisitor {
+  /**
+   * Called before the value of a named entry of a compound.
+   * 
+   * @param type the type of the value (see {@link NBTBase#COMPOUND} and the other constants)
+   * @param key the name of the entry
+   * @return false to skip the value: its bytes are read past without being decoded
+   */
+  default boolean visitEntry(byte type, String key) {
+    return true;
+  }
+  
+  /**
+   * Called at the start of a compound: the root, an entry value or a list element.
+   */
+  default void startCompound() {}
+  
+  /**
+   * Called at the end of a compound, after all its entries.
+   */
+  default void endCompound() {}
+  
+  /**
+   * Called at the start of a list.
+   * 
+   * @param elementType the type of the elements
+   * @param length the number of elements
+   * @return false to skip the whole list
+   */
+  default boolean startList(byte elementType, int length) {
+    return true;
+  }
+  
+  /**
+   * Called at the end of a list that has not been skipped.
+   */
+  default void endList() {}
+  
+  default void visitByte(byte value) {}
+  
+  default void visitShort(short value) {}
+  
+  default void visitInt(int value) {}
+  
+  default void visitLong(long value) {}
+  
+  default void visitFloat(float value) {}
+  
+  default void visitDouble(double value) {}
+  
+  default void visitString(String value) {}
+  
+  /**
+   * @param value a buffer holding the bytes of the array, reused for the next arrays
+   * @param length the length of the array
+   */
+  default void visitByteArray(byte[] value, int length) {}
+  
+  /**
+   * @param value a buffer holding the values of the array, reused for the next arrays
+   * @param length the length of the array
+   */
+  default void visitIntArray(int[] value, int length) {}
+}
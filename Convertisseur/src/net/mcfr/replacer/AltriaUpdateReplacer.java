@@ -2,73 +2,44 @@ package net.mcfr.replacer;
 
 import java.io.IOException;
 import java.text.ParseException;
-import java.util.Map;
+import java.util.BitSet;
+import java.util.List;
 
-import net.mcfr.util.BlockId;
-import net.mcfr.util.Util;
+import net.mcfr.util.WorldContext;
 
 /**
- * Un remplaceur spécial pour la conversion des cartes de la 1.4 vers la 1.10.
+ * Un remplaceur spécial pour la conversion des cartes de la 1.4 vers la 1.10. La réorientation des
+ * pentes est intégrée à la table des règles : {@link #replace(int)} et
+ * {@link #replaceSection} l'appliquent sans traitement supplémentaire, et elle est conservée dans le
+ * cache de la table.
  * 
  * @author Mc-Fr
  */
 public class AltriaUpdateReplacer extends Replacer {
-  /** Ue table contenant associant les ID à leur nom. */
-  private final Map<Integer, String> idsToName;
+  /** Le motif des noms des pentes. */
+  private static final String SLOPES_PATTERN = "*_slope";
+  /**
+   * Les nouveaux metadatas des pentes, indexés par l'ancien : l'orientation (bits 0 et 1) est
+   * tournée, le bit 2 est conservé et le bit 3 est abandonné.
+   */
+  private static final int[] SLOPES_METAS = {2, 1, 3, 0, 6, 5, 7, 4, 2, 1, 3, 0, 6, 5, 7, 4};
 
   /**
    * Crée un remplaceur pour mettre à jour les cartes de la 1.4 vers la 1.10.
    * 
-   * @param configPath le chemin du fichier de config
-   * @param levelDataPath le chemin vers le level.dat
+   * @param configPaths les chemins des fichiers de config, dans l'ordre d'application
+   * @param context le contexte de la carte à convertir
    * @throws IOException si une erreur de lecture est survenue
    * @throws ParseException si une erreur de syntaxe a été rencontrée
    */
-  public AltriaUpdateReplacer(String configPath, String levelDataPath) throws IOException, ParseException {
-    super(configPath, levelDataPath);
-    System.out.println("Génération de l'index ID/noms...");
-    this.idsToName = Util.getBlocksIdsToNamesTable(levelDataPath);
-    System.out.println("Fait.");
+  public AltriaUpdateReplacer(List<String> configPaths, WorldContext context) throws IOException, ParseException {
+    super(configPaths, context);
   }
 
-  /**
-   * {@inheritDoc} Les pentes sont réorientées pour être conformes aux nouveaux metadatas.
-   */
   @Override
-  public BlockId replace(byte[] blocks, byte[] add, byte[] data, int i, BlockId oldId) {
-    BlockId newId = super.replace(blocks, add, data, i, oldId);
-
-    if (newId != null && isSlope(newId.getId())) {
-      int meta = Util.extractHalfByte(data, i);
-      int newMeta = -1;
-
-      switch (meta & 3) {
-        case 0:
-          newMeta = 2;
-          break;
-        case 1:
-          newMeta = 1;
-          break;
-        case 2:
-          newMeta = 3;
-          break;
-        case 3:
-          newMeta = 0;
-          break;
-      }
-      replaceHalfByte(data, i, (byte) (newMeta | meta & 4));
-    }
-
-    return newId;
-  }
-
-  /**
-   * Indique si l'ID donné correspond à une pente.
-   * 
-   * @param id l'ID
-   * @return true si le bloc est une pente
-   */
-  private boolean isSlope(int id) {
-    return this.idsToName.containsKey(id) && this.idsToName.get(id).endsWith("_slope");
+  protected void adjustRules(WorldContext context) throws IOException {
+    BitSet slopes = new BitSet(4096);
+    context.getRegistry().getBlocksIdsMatching(SLOPES_PATTERN).forEach(slopes::set);
+    remapTargetMetas(slopes, SLOPES_METAS);
   }
 }
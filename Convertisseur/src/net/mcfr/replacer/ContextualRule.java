@@ -0,0 +1,22 @@
+package net.mcfr.replacer;
+
+import net.mcfr.util.Neighborhood;
+
+/**
+ * Une règle de conversion qui dépend des blocs voisins, enregistrée avec
+ * {@link Replacer#addContextualRule(int, int, ContextualRule)}.
+ * 
+ * @author Mc-Fr
+ */
+@FunctionalInterface
+public interface ContextualRule {
+  /**
+   * Convertit un bloc en fonction de son voisinage. Les voisins sont donnés tels qu'ils étaient
+   * avant la conversion, quel que soit l'ordre de traitement des blocs et des chunks.
+   * 
+   * @param key la clé {@code (id << 4) | meta} du bloc
+   * @param neighborhood le voisinage, centré sur le bloc
+   * @return la nouvelle clé du bloc
+   */
+  int apply(int key, Neighborhood neighborhood);
+}
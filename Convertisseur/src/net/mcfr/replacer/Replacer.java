@@ -1,36 +1,502 @@
 package net.mcfr.replacer;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.IntUnaryOperator;
 
 import net.mcfr.util.BlockId;
+import net.mcfr.util.NeighborRule;
+import net.mcfr.util.Neighborhood;
+import net.mcfr.util.PackedSection;
 import net.mcfr.util.Util;
+import net.mcfr.util.WorldContext;
 
 /**
  * Cette classe permet de remplacer des blocs par d'autres à partir d'une table chargée depuis le
  * fichier de config passé en paramètre.
+ * <p>
+ * Les règles sont compilées dans un tableau indexé par la clé {@code (id << 4) | meta} de chaque
+ * bloc (ID sur 12 bits, metadata sur 4 bits) : la conversion d'un bloc se fait sans allocation ni
+ * calcul de hash.
+ * <p>
+ * Plusieurs fichiers de config peuvent être enchaînés (A→B puis B→C) : leurs tables sont composées
+ * au chargement en un seul tableau, et la carte n'est parcourue qu'une fois.
+ * <p>
+ * Des règles contextuelles ({@link ContextualRule}), qui dépendent des blocs voisins, sont lues
+ * dans le premier fichier de config ({@link Util#parseNeighborRules(String, WorldContext)}) et
+ * peuvent être ajoutées par les sous-classes ; elles sont prioritaires sur la table et ne sont
+ * appliquées que par {@link #replaceSection(PackedSection, Neighborhood)}. Celles des fichiers de
+ * config sont compilées et enregistrées dans le cache avec la table.
  * 
  * @author Mc-Fr
  */
 public class Replacer {
-  /** Une table associant les anciens ID aux nouveaux. */
-  private final Map<BlockId, BlockId> idsTable;
+  /** Le nombre de clés possibles (ID sur 12 bits, metadata sur 4 bits). */
+  public static final int KEYS_NUMBER = 1 << 16;
+
+  /** La nouvelle clé de chaque clé ; les blocs sans règle sont associés à leur propre clé. */
+  private final char[] table;
+  /** Les clés ayant une règle. */
+  private final BitSet rules;
+  /** Les ID (sur 12 bits) dont au moins un metadata est modifié par une règle, 64 par entier. */
+  private final long[] sourceIds;
+  /** Indique si un des ID sources est inférieur à 256 (valeur additionnelle nulle). */
+  private boolean lowSourceIds;
+  /** Les règles contextuelles, indexées par clé source ; null s'il n'y en a aucune. */
+  private ContextualRule[] contextualRules;
+  /** Les règles contextuelles des fichiers de config, cibles composées, par clé source. */
+  private final SortedMap<Integer, List<NeighborRule>> neighborRules;
+  /** Les avertissements émis lors de la composition des tables. */
+  private final List<String> warnings;
 
   /**
    * Crée un remplaceur avec la configuration donnée.
    * 
    * @param configPath le chemin du fichier de config
-   * @param levelDataPath le chemin vers le level.dat
+   * @param context le contexte de la carte à convertir
    * @throws IOException si une erreur de lecture est survenue
    * @throws ParseException si une erreur de syntaxe a été rencontrée
    */
-  public Replacer(String configPath, String levelDataPath) throws IOException, ParseException {
+  public Replacer(String configPath, WorldContext context) throws IOException, ParseException {
+    this(Collections.singletonList(configPath), context);
+  }
+
+  /**
+   * Crée un remplaceur qui applique successivement plusieurs fichiers de config. Les avertissements
+   * de la composition sont affichés. La table compilée est enregistrée dans un cache à côté du
+   * premier fichier de config et relue directement tant que les fichiers de config et le level.dat
+   * ne changent pas.
+   * 
+   * @param configPaths les chemins des fichiers de config, dans l'ordre d'application
+   * @param context le contexte de la carte à convertir
+   * @throws IOException si une erreur de lecture est survenue
+   * @throws ParseException si une erreur de syntaxe a été rencontrée
+   */
+  public Replacer(List<String> configPaths, WorldContext context) throws IOException, ParseException {
+    this();
     System.out.println("Génération de la table des ID...");
-    this.idsTable = Util.getIdsTable(configPath, levelDataPath);
+
+    Path cachePath = TableCache.getPath(configPaths);
+    byte[] digest = TableCache.digest(getClass(), configPaths, context.getWorldDirectory());
+
+    if (TableCache.load(cachePath, digest, this.table, this.rules, this.neighborRules, this.warnings)) {
+      updateSourceIds();
+      System.out.println("Table lue depuis le cache.");
+    }
+    else {
+      for (String configPath : configPaths) {
+        Map<BlockId, BlockId> idsTable;
+
+        try {
+          idsTable = context.getIdsTable(configPath);
+        }
+        catch (ParseException e) {
+          if (configPaths.size() == 1)
+            throw e;
+          throw new ParseException(String.format("%s : %s", configPath, e.getMessage()), e.getErrorOffset());
+        }
+        compose(idsTable, configPath);
+      }
+      loadNeighborRules(configPaths, context);
+      adjustRules(context);
+      TableCache.save(cachePath, digest, this.table, this.rules, this.neighborRules, this.warnings);
+    }
+    compileNeighborRules();
+    this.warnings.forEach(warning -> System.out.println("Attention : " + warning));
     System.out.println("Fait.");
   }
 
+  /**
+   * Crée un remplaceur à partir d'une table associant les anciens ID aux nouveaux.
+   * 
+   * @param idsTable la table des ID
+   */
+  public Replacer(Map<BlockId, BlockId> idsTable) {
+    this(Collections.singletonList(idsTable));
+  }
+
+  /**
+   * Crée un remplaceur qui applique successivement plusieurs tables des ID.
+   * 
+   * @param idsTables les tables des ID, dans l'ordre d'application
+   */
+  public Replacer(List<Map<BlockId, BlockId>> idsTables) {
+    this();
+    for (int i = 0; i < idsTables.size(); i++)
+      compose(idsTables.get(i), "table " + (i + 1));
+  }
+
+  /**
+   * Lit les règles contextuelles du premier fichier de config, les seules dont les conditions
+   * portent sur les blocs d'origine. Leurs cibles sont converties par les fichiers suivants, puis
+   * comme les autres par {@link #adjustRules(WorldContext)}.
+   * 
+   * @param configPaths les chemins des fichiers de config, dans l'ordre d'application
+   * @param context le contexte de la carte à convertir
+   * @throws IOException si une erreur de lecture est survenue
+   * @throws ParseException si une erreur de syntaxe a été rencontrée ou si un fichier autre que le
+   *           premier contient une règle contextuelle
+   */
+  private void loadNeighborRules(List<String> configPaths, WorldContext context) throws IOException, ParseException {
+    Map<BlockId, List<NeighborRule>> neighborRules = null;
+
+    for (int i = 0; i < configPaths.size(); i++) {
+      String configPath = configPaths.get(i);
+      Map<BlockId, List<NeighborRule>> rules;
+
+      try {
+        rules = Util.parseNeighborRules(configPath, context);
+      }
+      catch (ParseException e) {
+        if (configPaths.size() == 1)
+          throw e;
+        throw new ParseException(String.format("%s : %s", configPath, e.getMessage()), e.getErrorOffset());
+      }
+      if (i == 0)
+        neighborRules = rules;
+      else if (!rules.isEmpty())
+        throw new ParseException(String.format("%s : règles contextuelles acceptées dans le premier fichier de config seulement", configPath), 0);
+    }
+    if (neighborRules.isEmpty())
+      return;
+
+    List<Map<BlockId, BlockId>> nextTables = new ArrayList<>();
+    for (String configPath : configPaths.subList(1, configPaths.size()))
+      nextTables.add(context.getIdsTable(configPath));
+    Replacer next = new Replacer(nextTables);
+
+    neighborRules.forEach((source, rules) -> {
+      if (source.getId() < 0 || source.getId() >= 4096)
+        return;
+
+      List<NeighborRule> compiled = new ArrayList<>();
+
+      for (NeighborRule rule : rules) {
+        BlockId target = rule.getTarget();
+        compiled.add(rule.withTarget(keyToBlockId(next.replace(getKey(target.getId() & 0xfff, target.getMeta() & 0xf)))));
+      }
+      this.neighborRules.put(getKey(source.getId(), source.getMeta()), compiled);
+    });
+  }
+
+  /**
+   * Crée les règles contextuelles correspondant aux règles des fichiers de config : la première
+   * règle dont la condition est remplie s'applique, la table sinon.
+   */
+  private void compileNeighborRules() {
+    if (this.neighborRules.isEmpty())
+      return;
+
+    if (this.contextualRules == null)
+      this.contextualRules = new ContextualRule[KEYS_NUMBER];
+    this.neighborRules.forEach((source, rules) -> {
+      NeighborRule[] conditions = rules.toArray(new NeighborRule[rules.size()]);
+      char[] targets = new char[conditions.length];
+
+      for (int n = 0; n < conditions.length; n++)
+        targets[n] = (char) getKey(conditions[n].getTarget().getId(), conditions[n].getTarget().getMeta());
+      this.contextualRules[source] = (key, neighborhood) -> {
+        for (int n = 0; n < conditions.length; n++) {
+          if (conditions[n].matches(neighborhood))
+            return targets[n];
+        }
+        return this.table[key];
+      };
+    });
+    updateSourceIds();
+  }
+
+  private static BlockId keyToBlockId(int key) {
+    return new BlockId(key >>> 4, key & 0xf);
+  }
+
+  private Replacer() {
+    this.table = new char[KEYS_NUMBER];
+    this.rules = new BitSet(KEYS_NUMBER);
+    this.sourceIds = new long[4096 / 64];
+    this.warnings = new ArrayList<>();
+    this.neighborRules = new TreeMap<>();
+    for (int key = 0; key < KEYS_NUMBER; key++)
+      this.table[key] = (char) key;
+  }
+
+  /**
+   * Compose le tableau des clés avec une table des ID appliquée après les précédentes. Les règles
+   * dont l'ID ou le metadata source sont hors limites ne peuvent correspondre à aucun bloc et sont
+   * ignorées. Deux situations sont signalées : une règle dont la source n'est plus produite par les
+   * tables précédentes (les blocs concernés ont déjà été convertis), et une conversion des tables
+   * précédentes que cette table ramène au bloc d'origine.
+   * 
+   * @param idsTable la table des ID
+   * @param name le nom de la table dans les avertissements
+   */
+  private void compose(Map<BlockId, BlockId> idsTable, String name) {
+    char[] step = new char[KEYS_NUMBER];
+    BitSet stepRules = new BitSet(KEYS_NUMBER);
+    BitSet produced = new BitSet(KEYS_NUMBER);
+    List<String> shadowed = new ArrayList<>();
+    List<String> reverted = new ArrayList<>();
+
+    idsTable.forEach((oldId, newId) -> {
+      if (oldId.getId() >= 0 && oldId.getId() < 4096 && oldId.getMeta() >= 0 && oldId.getMeta() < 16) {
+        int key = getKey(oldId.getId(), oldId.getMeta());
+        step[key] = (char) getKey(newId.getId() & 0xfff, newId.getMeta() & 0xf);
+        stepRules.set(key);
+      }
+    });
+
+    for (int key = 0; key < KEYS_NUMBER; key++)
+      produced.set(this.table[key]);
+    for (int key = stepRules.nextSetBit(0); key >= 0; key = stepRules.nextSetBit(key + 1)) {
+      if (!produced.get(key))
+        shadowed.add(keyToString(key));
+    }
+
+    for (int key = 0; key < KEYS_NUMBER; key++) {
+      int previous = this.table[key];
+
+      if (stepRules.get(previous)) {
+        int newKey = step[previous];
+
+        if (previous != key && newKey == key)
+          reverted.add(keyToString(key));
+        this.table[key] = (char) newKey;
+        this.rules.set(key);
+      }
+    }
+
+    warn(name, shadowed, "règle(s) sans effet, leurs blocs sources étant déjà convertis par les fichiers précédents");
+    warn(name, reverted, "conversion(s) des fichiers précédents annulée(s)");
+    updateSourceIds();
+  }
+
+  /**
+   * Ajoute un avertissement listant les premières clés concernées.
+   * 
+   * @param name le nom de la table
+   * @param keys les clés concernées
+   * @param message la description du problème
+   */
+  private void warn(String name, List<String> keys, String message) {
+    if (keys.isEmpty())
+      return;
+
+    String list = String.join(", ", keys.subList(0, Math.min(keys.size(), 8))) + (keys.size() > 8 ? ", ..." : "");
+    this.warnings.add(String.format("%s : %d %s (%s)", name, keys.size(), message, list));
+  }
+
+  private static String keyToString(int key) {
+    return (key >>> 4) + "/" + (key & 0xf);
+  }
+
+  /**
+   * @return les avertissements émis lors de la composition des tables
+   */
+  public List<String> getWarnings() {
+    return Collections.unmodifiableList(this.warnings);
+  }
+
+  /**
+   * Ajuste la table compilée à partir des fichiers de config, avant son enregistrement dans le
+   * cache. Appelée par le constructeur : les sous-classes qui la redéfinissent ne doivent pas
+   * dépendre de leurs propres champs.
+   * 
+   * @param context le contexte de la carte à convertir
+   * @throws IOException si une erreur de lecture est survenue
+   */
+  protected void adjustRules(WorldContext context) throws IOException {}
+
+  /**
+   * Applique une transformation à la clé cible de toutes les règles, contextuelles comprises.
+   * 
+   * @param transformation la transformation, appelée avec chaque nouvelle clé
+   */
+  protected final void transformRules(IntUnaryOperator transformation) {
+    for (int key = this.rules.nextSetBit(0); key >= 0; key = this.rules.nextSetBit(key + 1))
+      this.table[key] = (char) transformation.applyAsInt(this.table[key]);
+    this.neighborRules.values().forEach(rules -> rules.replaceAll(rule -> {
+      BlockId target = rule.getTarget();
+      return rule.withTarget(keyToBlockId(transformation.applyAsInt(getKey(target.getId(), target.getMeta()))));
+    }));
+    updateSourceIds();
+  }
+
+  /**
+   * Remplace le metadata cible des règles dont l'ID cible fait partie des ID donnés.
+   * 
+   * @param targetIds les ID cibles concernés
+   * @param metas les nouveaux metadatas, indexés par le metadata cible d'origine
+   */
+  protected final void remapTargetMetas(BitSet targetIds, int[] metas) {
+    transformRules(key -> targetIds.get(key >>> 4) ? key & ~0xf | metas[key & 0xf] : key);
+  }
+
+  /**
+   * Ajoute une règle contextuelle pour un couple ID/metadata, en remplacement de la règle de la
+   * table s'il y en a une.
+   * 
+   * @param id l'ID source (sur 12 bits)
+   * @param meta le metadata source (sur 4 bits)
+   * @param rule la règle
+   */
+  protected final void addContextualRule(int id, int meta, ContextualRule rule) {
+    if (this.contextualRules == null)
+      this.contextualRules = new ContextualRule[KEYS_NUMBER];
+    this.contextualRules[getKey(id, meta)] = rule;
+    updateSourceIds();
+  }
+
+  /**
+   * @return true si au moins une règle dépend des blocs voisins
+   */
+  public boolean hasContextualRules() {
+    return this.contextualRules != null;
+  }
+
+  /**
+   * Recalcule les ID sources à partir des règles qui modifient réellement les blocs.
+   */
+  private void updateSourceIds() {
+    Arrays.fill(this.sourceIds, 0);
+    for (int key = this.rules.nextSetBit(0); key >= 0; key = this.rules.nextSetBit(key + 1)) {
+      if (this.table[key] != key)
+        this.sourceIds[key >>> 10] |= 1L << (key >>> 4);
+    }
+    if (this.contextualRules != null) {
+      for (int key = 0; key < KEYS_NUMBER; key++) {
+        if (this.contextualRules[key] != null)
+          this.sourceIds[key >>> 10] |= 1L << (key >>> 4);
+      }
+    }
+    this.lowSourceIds = (this.sourceIds[0] | this.sourceIds[1] | this.sourceIds[2] | this.sourceIds[3]) != 0;
+  }
+
+  /**
+   * Retourne la clé d'un bloc.
+   * 
+   * @param id l'ID (sur 12 bits)
+   * @param meta le metadata (sur 4 bits)
+   * @return la clé {@code (id << 4) | meta}
+   */
+  public static int getKey(int id, int meta) {
+    return id << 4 | meta;
+  }
+
+  /**
+   * Convertit la clé d'un bloc.
+   * 
+   * @param key la clé {@code (id << 4) | meta}
+   * @return la nouvelle clé, ou la clé donnée si aucune règle ne s'applique
+   */
+  public int replace(int key) {
+    return this.table[key];
+  }
+
+  /**
+   * Indique si une section contient au moins un bloc dont l'ID est concerné par une règle. Seuls
+   * les ID sont examinés : une section pour laquelle cette méthode retourne false n'a pas à être
+   * convertie ni réécrite. Les sections sans ID supérieur à 255, les plus courantes, sont écartées
+   * sans parcourir les blocs si aucune règle ne porte sur un ID inférieur à 256. Les blocs sont
+   * sinon cherchés dans les octets bruts de la section, sans la décoder.
+   * 
+   * @param section la section
+   * @return true si la section peut être modifiée par {@link #replaceSection}
+   */
+  public boolean mayReplace(PackedSection section) {
+    if (!this.lowSourceIds && !section.hasExtendedIds())
+      return false;
+
+    return section.containsAnyId(this.sourceIds);
+  }
+
+  /**
+   * Convertit tous les blocs d'une section.
+   * 
+   * @param section la section
+   * @return true si au moins un bloc a été modifié
+   */
+  public boolean replaceSection(PackedSection section) {
+    char[] table = this.table;
+    char[] keys = section.getKeys();
+    int diff = 0;
+
+    for (int i = 0; i < keys.length; i++) {
+      int key = keys[i];
+      int newKey = table[key];
+
+      diff |= key ^ newKey;
+      keys[i] = (char) newKey;
+    }
+
+    return diff != 0;
+  }
+
+  /**
+   * Convertit tous les blocs d'une section en appliquant aussi les règles contextuelles. Le
+   * voisinage donne les blocs d'origine : le résultat ne dépend pas de l'ordre de conversion.
+   * 
+   * @param section la section, dont les clés sont celles d'origine
+   * @param neighborhood le voisinage du chunk, positionné sur la section
+   * @return true si au moins un bloc a été modifié
+   */
+  public boolean replaceSection(PackedSection section, Neighborhood neighborhood) {
+    ContextualRule[] rules = this.contextualRules;
+
+    if (rules == null)
+      return replaceSection(section);
+
+    char[] table = this.table;
+    char[] keys = section.getKeys();
+    int diff = 0;
+
+    for (int i = 0; i < keys.length; i++) {
+      int key = keys[i];
+      ContextualRule rule = rules[key];
+      int newKey = rule == null ? table[key] : rule.apply(key, neighborhood.moveTo(i)) & 0xffff;
+
+      diff |= key ^ newKey;
+      keys[i] = (char) newKey;
+    }
+
+    return diff != 0;
+  }
+
+  /**
+   * Convertit tous les blocs d'une section en passant par sa palette : chaque couple ID/metadata
+   * distinct n'est converti qu'une fois, puis la section est réécrite à partir de la palette.
+   * 
+   * @param section la section
+   * @param palette la palette à utiliser, propre au thread appelant
+   * @return true si au moins un bloc a été modifié
+   */
+  public boolean replaceSection(PackedSection section, SectionPalette palette) {
+    boolean changed = false;
+
+    palette.build(section);
+    for (int n = 0; n < palette.size(); n++) {
+      int key = palette.getEntry(n);
+      int newKey = replace(key);
+
+      if (newKey != key) {
+        palette.setMappedEntry(n, newKey);
+        changed = true;
+      }
+    }
+    if (changed)
+      palette.apply(section);
+
+    return changed;
+  }
+
   /**
    * Convertit l'ID donné en la nouvelle valeur.
    * 
@@ -39,15 +505,21 @@ public class Replacer {
    * @param data le tableau des metadatas
    * @param i l'indice dans le tableau des blocs
    * @param oldId l'ID à remplacer
-   * @param le nouvel ID
+   * @return le nouvel ID, ou null si aucune règle ne s'applique
    */
   public BlockId replace(byte[] blocks, byte[] add, byte[] data, int i, BlockId oldId) {
-    BlockId newId = this.idsTable.get(oldId);
+    if (oldId.getId() < 0 || oldId.getId() >= 4096 || oldId.getMeta() < 0 || oldId.getMeta() >= 16)
+      return null;
 
-    if (newId != null)
-      replaceBlockWithMeta(blocks, add, data, i, newId);
+    int key = getKey(oldId.getId(), oldId.getMeta());
 
-    return newId;
+    if (!this.rules.get(key))
+      return null;
+
+    int newKey = this.table[key];
+    replaceBlockWithMeta(blocks, add, data, i, newKey);
+
+    return new BlockId(newKey >>> 4, newKey & 0xf);
   }
 
   /**
@@ -65,6 +537,21 @@ public class Replacer {
     replaceHalfByte(data, i, (byte) (newId.getMeta() & 0xf));
   }
 
+  /**
+   * Remplace l'ID d'un bloc et son metadata.
+   * 
+   * @param blocks les blocs
+   * @param add les valeurs additionnelles
+   * @param data les metadatas
+   * @param i l'indice dans le tableau des blocs
+   * @param newKey la nouvelle clé {@code (id << 4) | meta}
+   */
+  public static void replaceBlockWithMeta(byte[] blocks, byte[] add, byte[] data, int i, int newKey) {
+    blocks[i] = (byte) (newKey >>> 4);
+    replaceHalfByte(add, i, (byte) (newKey >>> 12));
+    replaceHalfByte(data, i, (byte) newKey);
+  }
+
   /**
    * Remplace l'ID d'un bloc.
    * 
@@ -74,17 +561,10 @@ public class Replacer {
    * @param newId le nouvel ID
    */
   public static void replaceBlock(byte[] blocks, byte[] add, int i, BlockId newId) {
-    boolean even = i % 2 == 0;
     int id = newId.getId();
 
-    if (id > 255) {
-      byte b = (byte) ((id & 0xf00) >>> 8);
-      replaceHalfByte(add, i, b);
-    }
-    else {
-      add[i / 2] &= (even ? 0xf0 : 0x0f);
-    }
-    blocks[i] = (byte) (id & 0xff);
+    replaceHalfByte(add, i, (byte) (id >>> 8));
+    blocks[i] = (byte) id;
   }
 
   /**
@@ -95,7 +575,7 @@ public class Replacer {
    * @param newValue la nouvelle valeur
    */
   public static void replaceHalfByte(byte[] array, int i, byte newValue) {
-    boolean even = i % 2 == 0;
-    array[i / 2] = (byte) ((array[i / 2] & (even ? 0xf0 : 0x0f)) | ((newValue & 0xf) << (even ? 0 : 4)));
+    int shift = (i & 1) << 2;
+    array[i >> 1] = (byte) (array[i >> 1] & ~(0xf << shift) | (newValue & 0xf) << shift);
   }
 }
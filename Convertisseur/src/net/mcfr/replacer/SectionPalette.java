@@ -0,0 +1,113 @@
+package net.mcfr.replacer;
+
+import java.util.Arrays;
+
+import net.mcfr.util.PackedSection;
+
+/**
+ * Palette des couples ID/metadata distincts d'une section. Une section n'en contient en général
+ * que quelques-uns : les règles sont évaluées une fois par entrée de la palette puis la section
+ * est réécrite à partir des nouvelles entrées.
+ * <p>
+ * Une palette n'est pas partagée entre threads ; elle est réutilisée d'une section à l'autre sans
+ * nouvelle allocation.
+ * 
+ * @author Mc-Fr
+ */
+public final class SectionPalette {
+  /** L'indice dans la palette de chaque bloc de la section. */
+  private final short[] indices;
+  /** Les clés d'origine des entrées. */
+  private final char[] entries;
+  /** Les nouvelles clés des entrées. */
+  private final char[] mappedEntries;
+  /** L'indice de l'entrée de chaque clé, valable si la génération correspond. */
+  private final short[] slots;
+  /** La génération de la palette à laquelle chaque clé a été rencontrée. */
+  private final int[] generations;
+  private int generation;
+  private int size;
+
+  public SectionPalette() {
+    this.indices = new short[PackedSection.BLOCKS_NUMBER];
+    this.entries = new char[PackedSection.BLOCKS_NUMBER];
+    this.mappedEntries = new char[PackedSection.BLOCKS_NUMBER];
+    this.slots = new short[Replacer.KEYS_NUMBER];
+    this.generations = new int[Replacer.KEYS_NUMBER];
+    this.generation = 0;
+    this.size = 0;
+  }
+
+  /**
+   * Construit la palette d'une section.
+   * 
+   * @param section la section
+   */
+  public void build(PackedSection section) {
+    if (++this.generation == 0) {
+      // Après un tour complet du compteur, les anciennes générations pourraient être confondues.
+      Arrays.fill(this.generations, 0);
+      this.generation = 1;
+    }
+    this.size = 0;
+
+    char[] keys = section.getKeys();
+    for (int i = 0; i < keys.length; i++)
+      this.indices[i] = indexOf(keys[i]);
+  }
+
+  /**
+   * @return le nombre d'entrées de la palette
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * @param index l'indice de l'entrée
+   * @return la clé {@code (id << 4) | meta} d'origine de l'entrée
+   */
+  public int getEntry(int index) {
+    return this.entries[index];
+  }
+
+  /**
+   * Définit la nouvelle clé d'une entrée.
+   * 
+   * @param index l'indice de l'entrée
+   * @param newKey la nouvelle clé {@code (id << 4) | meta}
+   */
+  public void setMappedEntry(int index, int newKey) {
+    this.mappedEntries[index] = (char) newKey;
+  }
+
+  /**
+   * Réécrit la section à partir des nouvelles clés des entrées.
+   * 
+   * @param section la section
+   */
+  public void apply(PackedSection section) {
+    char[] keys = section.getKeys();
+
+    for (int i = 0; i < keys.length; i++)
+      keys[i] = this.mappedEntries[this.indices[i]];
+  }
+
+  /**
+   * Retourne l'indice de l'entrée d'une clé, en l'ajoutant à la palette si besoin.
+   * 
+   * @param key la clé
+   * @return l'indice de l'entrée
+   */
+  private short indexOf(int key) {
+    if (this.generations[key] != this.generation) {
+      this.generations[key] = this.generation;
+      this.slots[key] = (short) this.size;
+      this.entries[this.size] = (char) key;
+      this.mappedEntries[this.size] = (char) key;
+      this.size++;
+    }
+
+    return this.slots[key];
+  }
+}
@@ -0,0 +1,228 @@
+package net.mcfr.replacer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import net.mcfr.util.BlockId;
+import net.mcfr.util.NeighborRule;
+
+/**
+ * Cache binaire de la table compilée d'un {@link Replacer}, enregistré à côté du premier fichier de
+ * config. Il est identifié par une empreinte SHA-256 du contenu des fichiers de config, du
+ * level.dat et de la classe du remplaceur : s'il correspond, la table est lue par projection en
+ * mémoire du fichier sans analyser les fichiers de config ni décompresser le level.dat.
+ * <p>
+ * Format : l'en-tête {@link #MAGIC}, la version, l'empreinte (32 octets), les avertissements
+ * (nombre puis chaînes UTF-8 précédées de leur longueur), les 65536 clés cibles, les 1024 mots de
+ * la table des règles puis les règles contextuelles (nombre puis, pour chacune, la clé source, le
+ * décalage, l'ID et le metadata du voisin et la clé cible).
+ * 
+ * @author Mc-Fr
+ */
+final class TableCache {
+  /** Le suffixe ajouté au chemin du premier fichier de config. */
+  static final String SUFFIX = ".cache";
+  private static final int MAGIC = 0x4d434652;
+  private static final int VERSION = 2;
+  private static final int DIGEST_LENGTH = 32;
+
+  /**
+   * @param configPaths les chemins des fichiers de config
+   * @return le chemin du cache
+   */
+  static Path getPath(List<String> configPaths) {
+    return Paths.get(configPaths.get(0) + SUFFIX);
+  }
+
+  /**
+   * Calcule l'empreinte d'une configuration.
+   * 
+   * @param replacerClass la classe du remplaceur, qui peut ajuster la table compilée
+   * @param configPaths les chemins des fichiers de config, dans l'ordre d'application
+   * @param levelDataPath le chemin vers le level.dat
+   * @return l'empreinte
+   * @throws IOException si un fichier n'a pas pu être lu
+   */
+  static byte[] digest(Class<?> replacerClass, List<String> configPaths, String levelDataPath) throws IOException {
+    MessageDigest digest;
+
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+
+    digest.update(ByteBuffer.allocate(4).putInt(VERSION).array());
+    digest.update(replacerClass.getName().getBytes(StandardCharsets.UTF_8));
+    for (String configPath : configPaths) {
+      byte[] content = Files.readAllBytes(Paths.get(configPath));
+      // La longueur sépare les fichiers : A + BC et AB + C n'ont pas la même empreinte.
+      digest.update(ByteBuffer.allocate(4).putInt(content.length).array());
+      digest.update(content);
+    }
+    try {
+      digest.update(Files.readAllBytes(Paths.get(levelDataPath + "level.dat")));
+    }
+    catch (NoSuchFileException __) {
+      // Seules les règles numériques sont utilisables, le level.dat ne change rien.
+    }
+
+    return digest.digest();
+  }
+
+  /**
+   * Charge la table compilée si le cache existe et correspond à l'empreinte donnée.
+   * 
+   * @param path le chemin du cache
+   * @param digest l'empreinte attendue
+   * @param table le tableau des clés à remplir
+   * @param rules la table des règles à remplir
+   * @param neighborRules la table des règles contextuelles par clé source à remplir
+   * @param warnings la liste à laquelle ajouter les avertissements
+   * @return true si la table a été chargée
+   */
+  static boolean load(Path path, byte[] digest, char[] table, BitSet rules, Map<Integer, List<NeighborRule>> neighborRules,
+      List<String> warnings) {
+    if (!Files.isRegularFile(path))
+      return false;
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      // L'en-tête est vérifié avant la projection : un cache périmé n'est jamais projeté et peut
+      // être remplacé, y compris sous Windows.
+      ByteBuffer header = ByteBuffer.allocate(8 + DIGEST_LENGTH);
+      byte[] storedDigest = new byte[DIGEST_LENGTH];
+
+      while (header.hasRemaining()) {
+        if (channel.read(header) < 0)
+          return false;
+      }
+      header.flip();
+      if (header.getInt() != MAGIC || header.getInt() != VERSION)
+        return false;
+      header.get(storedDigest);
+      if (!Arrays.equals(digest, storedDigest))
+        return false;
+
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, header.capacity(), channel.size() - header.capacity());
+
+      int warningsNb = buffer.getInt();
+      String[] storedWarnings = new String[warningsNb];
+      for (int i = 0; i < warningsNb; i++) {
+        byte[] warning = new byte[buffer.getShort() & 0xffff];
+        buffer.get(warning);
+        storedWarnings[i] = new String(warning, StandardCharsets.UTF_8);
+      }
+
+      buffer.asCharBuffer().get(table);
+      buffer.position(buffer.position() + 2 * table.length);
+      long[] words = new long[Replacer.KEYS_NUMBER / 64];
+      LongBuffer longs = buffer.asLongBuffer();
+      longs.get(words);
+      buffer.position(buffer.position() + 8 * words.length);
+
+      int neighborRulesNb = buffer.getInt();
+      int[] sources = new int[neighborRulesNb];
+      NeighborRule[] storedNeighborRules = new NeighborRule[neighborRulesNb];
+      for (int i = 0; i < neighborRulesNb; i++) {
+        sources[i] = buffer.getChar();
+        int dx = buffer.get(), dy = buffer.get(), dz = buffer.get();
+        int neighborId = buffer.getInt();
+        int neighborMeta = buffer.get();
+        int target = buffer.getChar();
+        storedNeighborRules[i] = new NeighborRule(dx, dy, dz, neighborId, neighborMeta, new BlockId(target >>> 4, target & 0xf));
+      }
+
+      rules.clear();
+      rules.or(BitSet.valueOf(words));
+      neighborRules.clear();
+      for (int i = 0; i < neighborRulesNb; i++)
+        neighborRules.computeIfAbsent(sources[i], __ -> new ArrayList<>()).add(storedNeighborRules[i]);
+      warnings.addAll(Arrays.asList(storedWarnings));
+      return true;
+    }
+    catch (IOException | BufferUnderflowException | IllegalArgumentException __) {
+      return false;
+    }
+  }
+
+  /**
+   * Enregistre la table compilée. Le cache est écrit dans un fichier temporaire puis renommé, pour
+   * qu'une exécution concurrente ne lise jamais un cache incomplet. Un échec est signalé sans
+   * interrompre la conversion.
+   * 
+   * @param path le chemin du cache
+   * @param digest l'empreinte de la configuration
+   * @param table le tableau des clés
+   * @param rules la table des règles
+   * @param neighborRules les règles contextuelles par clé source
+   * @param warnings les avertissements
+   */
+  static void save(Path path, byte[] digest, char[] table, BitSet rules, Map<Integer, List<NeighborRule>> neighborRules,
+      List<String> warnings) {
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(digest);
+        out.writeInt(warnings.size());
+        for (String warning : warnings) {
+          byte[] bytes = warning.getBytes(StandardCharsets.UTF_8);
+          out.writeShort(bytes.length);
+          out.write(bytes);
+        }
+        for (char key : table)
+          out.writeChar(key);
+        long[] words = Arrays.copyOf(rules.toLongArray(), Replacer.KEYS_NUMBER / 64);
+        for (long word : words)
+          out.writeLong(word);
+        out.writeInt(neighborRules.values().stream().mapToInt(List::size).sum());
+        for (Map.Entry<Integer, List<NeighborRule>> entry : neighborRules.entrySet()) {
+          for (NeighborRule rule : entry.getValue()) {
+            out.writeChar(entry.getKey());
+            out.writeByte(rule.getDx());
+            out.writeByte(rule.getDy());
+            out.writeByte(rule.getDz());
+            out.writeInt(rule.getNeighborId());
+            out.writeByte(rule.getNeighborMeta());
+            out.writeChar(Replacer.getKey(rule.getTarget().getId(), rule.getTarget().getMeta()));
+          }
+        }
+      }
+      try {
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException __) {
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    catch (IOException e) {
+      System.out.println("Le cache de la table des ID n'a pas pu être écrit : " + e.getMessage());
+    }
+  }
+
+  private TableCache() {}
+}
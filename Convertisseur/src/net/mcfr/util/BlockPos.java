@@ -3,16 +3,33 @@ package net.mcfr.util;
 import java.util.Optional;
 
 public class BlockPos {
+  private final String dimension;
   private final int x, y, z;
   private String comment;
 
   public BlockPos(int x, int y, int z, String comment) {
+    this("", x, y, z, comment);
+  }
+
+  /**
+   * @param dimension le nom du dossier de la dimension, vide pour le monde normal
+   * @param x l'abscisse
+   * @param y l'ordonnée
+   * @param z la cote
+   * @param comment le commentaire, ou null
+   */
+  public BlockPos(String dimension, int x, int y, int z, String comment) {
+    this.dimension = dimension;
     this.x = x;
     this.y = y;
     this.z = z;
     this.comment = comment;
   }
 
+  public String getDimension() {
+    return this.dimension;
+  }
+
   public int getX() {
     return this.x;
   }
@@ -31,6 +48,7 @@ public class BlockPos {
 
   @Override
   public String toString() {
-    return String.format("(%d, %d, %d) %s", getX(), getY(), getZ(), getComment().orElse("bloc"));
+    String pos = String.format("(%d, %d, %d) %s", getX(), getY(), getZ(), getComment().orElse("bloc"));
+    return getDimension().isEmpty() ? pos : getDimension() + " " + pos;
   }
 }
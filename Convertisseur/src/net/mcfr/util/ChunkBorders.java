@@ -0,0 +1,70 @@
+package net.mcfr.util;
+
+/**
+ * Les blocs d'origine des quatre faces verticales d'un chunk, c'est-à-dire les seuls blocs qu'un
+ * chunk voisin peut voir dans une fenêtre 3×3×3. Une instance n'est plus modifiée une fois
+ * construite et peut être partagée entre threads.
+ * 
+ * @author Mc-Fr
+ */
+public final class ChunkBorders {
+  /** Le nombre de sections d'un chunk. */
+  public static final int SECTIONS_NUMBER = 16;
+
+  /** Les faces, dans l'ordre : z = 0, z = 15, x = 0 et x = 15. */
+  private static final int NORTH = 0, SOUTH = 1, WEST = 2, EAST = 3;
+
+  /** Les faces de chaque section, null si la section est absente. */
+  private final char[][] sections;
+
+  public ChunkBorders() {
+    this.sections = new char[SECTIONS_NUMBER][];
+  }
+
+  /**
+   * Copie les faces d'une section.
+   * 
+   * @param y l'indice vertical de la section (de 0 à 15)
+   * @param keys les clés {@code (id << 4) | meta} des blocs de la section
+   */
+  public void setSection(int y, char[] keys) {
+    char[] faces = new char[4 << 8];
+
+    for (int h = 0; h < 16; h++) {
+      for (int t = 0; t < 16; t++) {
+        int row = h << 4 | t;
+
+        faces[NORTH << 8 | row] = keys[h << 8 | t];
+        faces[SOUTH << 8 | row] = keys[h << 8 | 15 << 4 | t];
+        faces[WEST << 8 | row] = keys[h << 8 | t << 4];
+        faces[EAST << 8 | row] = keys[h << 8 | t << 4 | 15];
+      }
+    }
+    this.sections[y] = faces;
+  }
+
+  /**
+   * Retourne la clé d'un bloc situé sur une des faces du chunk.
+   * 
+   * @param x l'abscisse dans le chunk, 0 ou 15 si le bloc est sur une face x
+   * @param y l'ordonnée (de 0 à 255)
+   * @param z la cote dans le chunk, 0 ou 15 si le bloc est sur une face z
+   * @return la clé {@code (id << 4) | meta} du bloc, 0 (air) si sa section est absente
+   */
+  public int get(int x, int y, int z) {
+    char[] faces = this.sections[y >> 4];
+
+    if (faces == null)
+      return 0;
+
+    int h = (y & 15) << 4;
+
+    if (x == 0)
+      return faces[WEST << 8 | h | z];
+    if (x == 15)
+      return faces[EAST << 8 | h | z];
+    if (z == 0)
+      return faces[NORTH << 8 | h | x];
+    return faces[SOUTH << 8 | h | x];
+  }
+}
@@ -0,0 +1,86 @@
+package net.mcfr.util;
+
+/**
+ * Une règle contextuelle d'un fichier de config : sa cible ne s'applique que si le bloc voisin
+ * situé au décalage donné a l'ID (et le metadata) attendu.
+ * 
+ * @author Mc-Fr
+ */
+public final class NeighborRule {
+  private final int dx, dy, dz;
+  private final int neighborId;
+  /** Le metadata attendu pour le voisin, -1 pour tous. */
+  private final int neighborMeta;
+  private final BlockId target;
+
+  /**
+   * Crée une règle contextuelle.
+   * 
+   * @param dx le décalage du voisin en x (de -1 à 1)
+   * @param dy le décalage du voisin en y (de -1 à 1)
+   * @param dz le décalage du voisin en z (de -1 à 1)
+   * @param neighborId l'ID attendu pour le voisin
+   * @param neighborMeta le metadata attendu pour le voisin, -1 pour tous
+   * @param target le nouvel ID/metadata du bloc
+   */
+  public NeighborRule(int dx, int dy, int dz, int neighborId, int neighborMeta, BlockId target) {
+    this.dx = dx;
+    this.dy = dy;
+    this.dz = dz;
+    this.neighborId = neighborId;
+    this.neighborMeta = neighborMeta;
+    this.target = target;
+  }
+
+  /**
+   * Indique si le voisin du bloc courant correspond à la condition de la règle.
+   * 
+   * @param neighborhood le voisinage, centré sur le bloc
+   * @return true si la cible s'applique
+   */
+  public boolean matches(Neighborhood neighborhood) {
+    int key = neighborhood.get(this.dx, this.dy, this.dz);
+    return key >>> 4 == this.neighborId && (this.neighborMeta == -1 || (key & 0xf) == this.neighborMeta);
+  }
+
+  public int getDx() {
+    return this.dx;
+  }
+
+  public int getDy() {
+    return this.dy;
+  }
+
+  public int getDz() {
+    return this.dz;
+  }
+
+  public int getNeighborId() {
+    return this.neighborId;
+  }
+
+  /**
+   * @return le metadata attendu pour le voisin, -1 pour tous
+   */
+  public int getNeighborMeta() {
+    return this.neighborMeta;
+  }
+
+  public BlockId getTarget() {
+    return this.target;
+  }
+
+  /**
+   * @param target la nouvelle cible
+   * @return une règle de même condition avec la cible donnée
+   */
+  public NeighborRule withTarget(BlockId target) {
+    return new NeighborRule(this.dx, this.dy, this.dz, this.neighborId, this.neighborMeta, target);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s@%d,%d,%d=%d%s", this.target, this.dx, this.dy, this.dz, this.neighborId,
+        this.neighborMeta == -1 ? "" : "/" + this.neighborMeta);
+  }
+}
@@ -0,0 +1,130 @@
+package net.mcfr.util;
+
+/**
+ * Le voisinage 3×3×3 des blocs d'un chunk, tel qu'il était avant toute conversion : les blocs du
+ * chunk sont copiés avant le traitement de la première section et ceux des chunks voisins sont lus
+ * dans leurs {@link ChunkBorders}. Le voisinage est déplacé de bloc en bloc avec
+ * {@link #moveTo(int)} sans autre calcul que celui des indices.
+ * <p>
+ * Une instance n'est pas partagée entre threads et est réutilisée d'un chunk à l'autre.
+ * 
+ * @author Mc-Fr
+ */
+public final class Neighborhood {
+  /** Les copies des sections du chunk, allouées au besoin et conservées d'un chunk à l'autre. */
+  private final char[][] buffers;
+  /** Les sections présentes du chunk courant, null pour les sections absentes. */
+  private final char[][] sections;
+  /** Les faces des chunks voisins, indexées par {@code (dz + 1) * 3 + dx + 1}. */
+  private final ChunkBorders[] neighbors;
+  private int sectionY;
+  private int index;
+
+  public Neighborhood() {
+    this.buffers = new char[ChunkBorders.SECTIONS_NUMBER][];
+    this.sections = new char[ChunkBorders.SECTIONS_NUMBER][];
+    this.neighbors = new ChunkBorders[9];
+  }
+
+  /**
+   * Vide le voisinage avant le chargement d'un nouveau chunk.
+   */
+  public void clear() {
+    for (int y = 0; y < ChunkBorders.SECTIONS_NUMBER; y++)
+      this.sections[y] = null;
+    for (int i = 0; i < this.neighbors.length; i++)
+      this.neighbors[i] = null;
+  }
+
+  /**
+   * Copie les blocs d'origine d'une section du chunk.
+   * 
+   * @param y l'indice vertical de la section (de 0 à 15)
+   * @param keys les clés {@code (id << 4) | meta} des blocs de la section
+   */
+  public void setSection(int y, char[] keys) {
+    if (this.buffers[y] == null)
+      this.buffers[y] = new char[PackedSection.BLOCKS_NUMBER];
+    System.arraycopy(keys, 0, this.buffers[y], 0, PackedSection.BLOCKS_NUMBER);
+    this.sections[y] = this.buffers[y];
+  }
+
+  /**
+   * @param y l'indice vertical de la section (de 0 à 15)
+   * @return les clés d'origine des blocs de la section, ou null si elle est absente
+   */
+  public char[] getSection(int y) {
+    return this.sections[y];
+  }
+
+  /**
+   * @return les faces du chunk, construites à partir des sections copiées
+   */
+  public ChunkBorders getBorders() {
+    ChunkBorders borders = new ChunkBorders();
+
+    for (int y = 0; y < ChunkBorders.SECTIONS_NUMBER; y++) {
+      if (this.sections[y] != null)
+        borders.setSection(y, this.sections[y]);
+    }
+
+    return borders;
+  }
+
+  /**
+   * Définit les faces d'un chunk voisin.
+   * 
+   * @param dx le décalage du voisin en x (de -1 à 1)
+   * @param dz le décalage du voisin en z (de -1 à 1)
+   * @param borders les faces du voisin, ou null s'il n'existe pas
+   */
+  public void setNeighbor(int dx, int dz, ChunkBorders borders) {
+    this.neighbors[(dz + 1) * 3 + dx + 1] = borders;
+  }
+
+  /**
+   * Sélectionne la section dont les blocs vont être parcourus.
+   * 
+   * @param y l'indice vertical de la section (de 0 à 15)
+   */
+  public void setCurrentSection(int y) {
+    this.sectionY = y;
+  }
+
+  /**
+   * Centre le voisinage sur un bloc de la section courante.
+   * 
+   * @param index l'indice du bloc dans la section
+   * @return ce voisinage
+   */
+  public Neighborhood moveTo(int index) {
+    this.index = index;
+    return this;
+  }
+
+  /**
+   * Retourne la clé d'origine d'un bloc du voisinage. Les blocs hors du monde, des sections absentes
+   * ou des chunks inexistants sont de l'air.
+   * 
+   * @param dx le décalage en x (de -1 à 1)
+   * @param dy le décalage en y (de -1 à 1)
+   * @param dz le décalage en z (de -1 à 1)
+   * @return la clé {@code (id << 4) | meta} du bloc
+   */
+  public int get(int dx, int dy, int dz) {
+    int x = (this.index & 15) + dx;
+    int z = (this.index >>> 4 & 15) + dz;
+    int y = (this.sectionY << 4 | this.index >>> 8) + dy;
+
+    if (y < 0 || y >= ChunkBorders.SECTIONS_NUMBER << 4)
+      return 0;
+
+    if (((x | z) & ~15) == 0) {
+      char[] keys = this.sections[y >> 4];
+      return keys == null ? 0 : keys[(y & 15) << 8 | z << 4 | x];
+    }
+
+    ChunkBorders borders = this.neighbors[((z >> 4) + 1) * 3 + (x >> 4) + 1];
+    return borders == null ? 0 : borders.get(x & 15, y, z & 15);
+  }
+}
@@ -0,0 +1,222 @@
+package net.mcfr.util;
+
+/**
+ * Les blocs d'une section sous forme compacte : chaque bloc est représenté par la clé
+ * {@code (id << 4) | meta} dans un unique tableau de 4096 caractères, dans l'ordre des tableaux
+ * Blocks/Add/Data de Minecraft (indice {@code y << 8 | z << 4 | x}).
+ * <p>
+ * Une section est décompressée une fois après la lecture du chunk et recompressée une fois avant
+ * son écriture ; les traitements parcourent directement le tableau des clés. La décompression est
+ * faite au premier accès aux blocs : une section écartée sur la seule base de
+ * {@link #hasExtendedIds()} ou de {@link #containsAnyId(long[])} n'est jamais décodée. Une instance n'est pas partagée entre threads et
+ * est réutilisée d'une section à l'autre.
+ * 
+ * @author Mc-Fr
+ */
+public final class PackedSection {
+  /** Le nombre de blocs dans une section. */
+  public static final int BLOCKS_NUMBER = 4096;
+
+  private final char[] keys;
+  /** Les tableaux de la section Minecraft chargée, tant qu'ils n'ont pas été décodés. */
+  private byte[] blocks, add, data;
+  private boolean unpacked;
+
+  public PackedSection() {
+    this.keys = new char[BLOCKS_NUMBER];
+    this.unpacked = true;
+  }
+
+  /**
+   * Charge les tableaux d'une section Minecraft. Ils seront décodés au premier accès aux blocs.
+   * 
+   * @param blocks le tableau des blocs (4096 octets)
+   * @param add le tableau des valeurs additionnelles (2048 octets), ou null s'il est absent
+   * @param data le tableau des metadatas (2048 octets)
+   */
+  public void load(byte[] blocks, byte[] add, byte[] data) {
+    this.blocks = blocks;
+    this.add = add;
+    this.data = data;
+    this.unpacked = false;
+  }
+
+  /**
+   * Charge des clés déjà décodées.
+   * 
+   * @param keys les clés {@code (id << 4) | meta} des 4096 blocs
+   */
+  public void load(char[] keys) {
+    System.arraycopy(keys, 0, this.keys, 0, BLOCKS_NUMBER);
+    this.blocks = this.add = this.data = null;
+    this.unpacked = true;
+  }
+
+  /**
+   * Décode les tableaux chargés si ce n'est pas déjà fait. Les blocs sont traités deux par deux
+   * pour lire directement les octets des demi-octets.
+   */
+  private void unpack() {
+    if (this.unpacked)
+      return;
+
+    char[] keys = this.keys;
+    byte[] blocks = this.blocks, add = this.add, data = this.data;
+
+    if (add == null) {
+      for (int j = 0, i = 0; j < data.length; j++, i += 2) {
+        int d = data[j];
+
+        keys[i] = (char) ((blocks[i] & 0xff) << 4 | d & 0x0f);
+        keys[i + 1] = (char) ((blocks[i + 1] & 0xff) << 4 | (d & 0xf0) >>> 4);
+      }
+    }
+    else {
+      for (int j = 0, i = 0; j < data.length; j++, i += 2) {
+        int a = add[j];
+        int d = data[j];
+
+        keys[i] = (char) ((a & 0x0f) << 12 | (blocks[i] & 0xff) << 4 | d & 0x0f);
+        keys[i + 1] = (char) ((a & 0xf0) << 8 | (blocks[i + 1] & 0xff) << 4 | (d & 0xf0) >>> 4);
+      }
+    }
+    this.blocks = this.add = this.data = null;
+    this.unpacked = true;
+  }
+
+  /**
+   * Réécrit les tableaux d'une section Minecraft à partir de la section.
+   * 
+   * @param blocks le tableau des blocs (4096 octets)
+   * @param add le tableau des valeurs additionnelles (2048 octets)
+   * @param data le tableau des metadatas (2048 octets)
+   * @return true si au moins un ID dépasse 255, c'est-à-dire si le tableau Add est nécessaire
+   */
+  public boolean pack(byte[] blocks, byte[] add, byte[] data) {
+    unpack();
+    char[] keys = this.keys;
+    int acc = 0;
+
+    for (int j = 0, i = 0; j < data.length; j++, i += 2) {
+      int key0 = keys[i];
+      int key1 = keys[i + 1];
+
+      blocks[i] = (byte) (key0 >>> 4);
+      blocks[i + 1] = (byte) (key1 >>> 4);
+      add[j] = (byte) (key0 >>> 12 | (key1 >>> 8) & 0xf0);
+      data[j] = (byte) (key0 & 0x0f | (key1 & 0x0f) << 4);
+      acc |= key0 | key1;
+    }
+
+    return acc >>> 12 != 0;
+  }
+
+  /**
+   * Donne accès au tableau des clés, pour les parcours de toute la section.
+   * 
+   * @return le tableau des clés {@code (id << 4) | meta}
+   */
+  public char[] getKeys() {
+    unpack();
+    return this.keys;
+  }
+
+  /**
+   * @param i l'indice du bloc
+   * @return la clé {@code (id << 4) | meta} du bloc
+   */
+  public int get(int i) {
+    unpack();
+    return this.keys[i];
+  }
+
+  /**
+   * @param i l'indice du bloc
+   * @param key la nouvelle clé {@code (id << 4) | meta} du bloc
+   */
+  public void set(int i, int key) {
+    unpack();
+    this.keys[i] = (char) key;
+  }
+
+  /**
+   * @param i l'indice du bloc
+   * @return l'ID du bloc
+   */
+  public int getId(int i) {
+    unpack();
+    return this.keys[i] >>> 4;
+  }
+
+  /**
+   * @param i l'indice du bloc
+   * @return le metadata du bloc
+   */
+  public int getMeta(int i) {
+    unpack();
+    return this.keys[i] & 0xf;
+  }
+
+  /**
+   * Indique si la section contient au moins un bloc dont l'ID appartient à l'ensemble donné. Tant
+   * que la section n'a pas été décodée, seuls les octets des tableaux Blocks et Add sont lus, et
+   * seulement ceux de Blocks si Add est absent ou nul : les metadatas ne sont pas décodés.
+   * 
+   * @param ids l'ensemble des ID (sur 12 bits), 64 par entier
+   * @return true si un bloc a un des ID
+   */
+  public boolean containsAnyId(long[] ids) {
+    if (this.unpacked) {
+      char[] keys = this.keys;
+
+      for (int i = 0; i < keys.length; i++) {
+        int id = keys[i] >>> 4;
+
+        if ((ids[id >>> 6] >>> id & 1) != 0)
+          return true;
+      }
+      return false;
+    }
+
+    byte[] blocks = this.blocks, add = this.add;
+
+    if (add == null || Util.isZero(add)) {
+      for (int i = 0; i < blocks.length; i++) {
+        int id = blocks[i] & 0xff;
+
+        if ((ids[id >>> 6] >>> id & 1) != 0)
+          return true;
+      }
+      return false;
+    }
+
+    for (int j = 0, i = 0; j < add.length; j++, i += 2) {
+      int a = add[j];
+      int id0 = (a & 0x0f) << 8 | blocks[i] & 0xff;
+      int id1 = (a & 0xf0) << 4 | blocks[i + 1] & 0xff;
+
+      if ((ids[id0 >>> 6] >>> id0 & 1 | ids[id1 >>> 6] >>> id1 & 1) != 0)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Indique si au moins un ID de la section dépasse 255. Le parcours n'a pas de branchement et est
+   * vectorisé par le compilateur JIT lorsque le processeur le permet.
+   * 
+   * @return true si un bloc a une valeur additionnelle non nulle
+   */
+  public boolean hasExtendedIds() {
+    if (!this.unpacked)
+      return this.add != null && !Util.isZero(this.add);
+
+    char[] keys = this.keys;
+    int acc = 0;
+
+    for (int i = 0; i < keys.length; i++)
+      acc |= keys[i];
+
+    return acc >>> 12 != 0;
+  }
+}
@@ -1,250 +1,233 @@
 package net.mcfr.util;
 
 import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import net.mcfr.minecraft.nbt.CompressedStreamTools;
-import net.mcfr.minecraft.nbt.NBTBase;
-import net.mcfr.minecraft.nbt.NBTTagCompound;
-import net.mcfr.minecraft.nbt.NBTTagList;
-
 public final class Util {
-  private static Map<Integer, String> blockIdsToNames;
-  private static Map<String, Integer> blockNamesToIds;
-  private static Map<Integer, String> itemIdsToNames;
-  private static Map<String, Integer> itemNamesToIds;
-  private static Map<BlockId, BlockId> idsTable;
-
   /**
-   * Retourne la table associant les ID des blocs à leur nom.
+   * Crée la table des ID. Chaque ligne du fichier de config est une règle de la forme
+   * {@code source->cible} :
+   * <ul>
+   * <li>la source est un ID numérique, un ID litéral (domaine:nom) ou un motif de noms contenant
+   * des * (ex. : *_slope), suivi ou non d'un metadata (/m) ;</li>
+   * <li>la cible est un ID numérique, un ID litéral ou = (même ID que la source), suivi ou non d'un
+   * metadata (/m) ou d'une table de 16 metadatas indexée par le metadata source
+   * (/{m0,m1,...,m15}) ; * remplace les blocs par de l'air.</li>
+   * </ul>
+   * Une règle peut être suivie d'une condition sur un bloc voisin, de la forme
+   * {@code @dx,dy,dz=voisin[/m]} : ces règles contextuelles sont lues par
+   * {@link #parseNeighborRules(String, WorldContext)} et ignorées ici.
+   * <p>
+   * Les motifs et les tables sont développés ici en règles simples. Les registres de la carte ne
+   * sont lus que si une règle utilise un ID litéral ou un motif.
    * 
-   * @param levelDataPath le chemin vers le level.dat
-   * @return la table des ID/noms
-   * @throws IOException
+   * @param configPath le chemin du fichier de config
+   * @param context le contexte de la carte à convertir
+   * @return la table des ID
+   * @throws IOException si une erreur de lecture est survenue
+   * @throws ParseException si une erreur de syntaxe a été rencontrée
    */
-  public static Map<Integer, String> getBlocksIdsToNamesTable(String levelDataPath) throws IOException {
-    if (blockIdsToNames == null) {
-      NBTTagList list = getBlocksIdsList(levelDataPath);
-      blockIdsToNames = new LinkedHashMap<>();
-
-      for (int i = 0; i < list.tagCount(); i++) {
-        NBTTagCompound c = list.getCompoundTagAt(i);
-        blockIdsToNames.put(c.getInteger("V"), c.getString("K"));
-      }
-    }
+  public static Map<BlockId, BlockId> parseIdsTable(String configPath, WorldContext context) throws IOException, ParseException {
+    Map<BlockId, BlockId> idsTable = new HashMap<>();
 
-    return Collections.unmodifiableMap(blockIdsToNames);
+    parseConfig(configPath, context, idsTable, null);
+
+    return idsTable;
   }
 
   /**
-   * Retourne la table associant les noms des blocs à leur ID.
+   * Lit les règles contextuelles d'un fichier de config, de la forme
+   * {@code source->cible@dx,dy,dz=voisin[/m]} : la cible ne s'applique que si le bloc situé au
+   * décalage donné (chaque composante de -1 à 1) a l'ID voisin, et le metadata s'il est précisé.
+   * Les autres règles sont ignorées. Les règles d'une même source sont gardées dans l'ordre du
+   * fichier.
    * 
-   * @param levelDataPath le chemin vers le level.dat
-   * @return la table des noms/ID
-   * @throws IOException
+   * @param configPath le chemin du fichier de config
+   * @param context le contexte de la carte à convertir
+   * @return les règles contextuelles de chaque ID/metadata source
+   * @throws IOException si une erreur de lecture est survenue
+   * @throws ParseException si une erreur de syntaxe a été rencontrée
    */
-  public static Map<String, Integer> getBlocksNamesToIdsTable(String levelDataPath) throws IOException {
-    if (blockNamesToIds == null) {
-      NBTTagList list = getBlocksIdsList(levelDataPath);
-      blockNamesToIds = new LinkedHashMap<>();
-
-      for (int i = 0; i < list.tagCount(); i++) {
-        NBTTagCompound c = list.getCompoundTagAt(i);
-        blockNamesToIds.put(c.getString("K"), c.getInteger("V"));
-      }
-    }
+  public static Map<BlockId, List<NeighborRule>> parseNeighborRules(String configPath, WorldContext context) throws IOException, ParseException {
+    Map<BlockId, List<NeighborRule>> neighborRules = new LinkedHashMap<>();
+
+    parseConfig(configPath, context, null, neighborRules);
 
-    return Collections.unmodifiableMap(blockNamesToIds);
+    return neighborRules;
   }
 
   /**
-   * Retourne la table associant les ID des items à leur nom.
+   * Analyse un fichier de config. Seules les règles de la sorte demandée sont développées, les
+   * autres sont seulement vérifiées syntaxiquement.
    * 
-   * @param levelDataPath le chemin vers le level.dat
-   * @return la table des ID/noms
-   * @throws IOException
+   * @param configPath le chemin du fichier de config
+   * @param context le contexte de la carte à convertir
+   * @param idsTable la table des règles simples à remplir, ou null
+   * @param neighborRules la table des règles contextuelles à remplir, ou null
+   * @throws IOException si une erreur de lecture est survenue
+   * @throws ParseException si une erreur de syntaxe a été rencontrée
    */
-  public static Map<Integer, String> getItemsIdsToNamesTable(String levelDataPath) throws IOException {
-    if (itemIdsToNames == null) {
-      NBTTagList list = getItemsIdsList(levelDataPath);
-      itemIdsToNames = new LinkedHashMap<>();
-
-      for (int i = 0; i < list.tagCount(); i++) {
-        NBTTagCompound c = list.getCompoundTagAt(i);
-        itemIdsToNames.put(c.getInteger("V"), c.getString("K"));
+  private static void parseConfig(String configPath, WorldContext context, Map<BlockId, BlockId> idsTable,
+      Map<BlockId, List<NeighborRule>> neighborRules) throws IOException, ParseException {
+    Pattern fullPattern = Pattern.compile("^([\\w:*]+)(?:/(\\d+))?->(?:(\\w+:\\w+|\\d+|=)(?:/(\\d+|\\{\\d+(?:,\\d+){15}\\}))?|(\\*))"
+        + "(?:@(-?[01]),(-?[01]),(-?[01])=(\\w+:\\w+|\\d+)(?:/(\\d+))?)?$");
+
+    try (BufferedReader in = new BufferedReader(new FileReader(configPath))) {
+      String line;
+      int i = 0;
+
+      while ((line = in.readLine()) != null) {
+        Matcher m = fullPattern.matcher(line);
+
+        i++;
+        if (!m.matches())
+          throw new ParseException("Erreur de syntaxe", i);
+
+        boolean contextual = m.group(6) != null;
+        if (contextual ? neighborRules == null : idsTable == null)
+          continue;
+
+        List<Integer> oldIds = parseSourceIds(m.group(1), context, i);
+        int oldMeta = m.group(2) != null ? parseMeta(m.group(2), i) : -1;
+        int[] newMetas = null;
+        Integer newId = null;
+
+        if (m.group(5) == null) {
+          if (!m.group(3).equals("="))
+            newId = parseId(m.group(3), context, i);
+          if (m.group(4) != null)
+            newMetas = parseMetas(m.group(4), i);
+          else if (oldMeta != -1)
+            throw new ParseException("Règle incohérente", i);
+        }
+        else {
+          newId = 0;
+          newMetas = new int[16];
+        }
+
+        int dx = 0, dy = 0, dz = 0, neighborId = 0, neighborMeta = -1;
+
+        if (contextual) {
+          dx = Integer.parseInt(m.group(6));
+          dy = Integer.parseInt(m.group(7));
+          dz = Integer.parseInt(m.group(8));
+          if (dx == 0 && dy == 0 && dz == 0)
+            throw new ParseException("Le voisin ne peut pas être le bloc lui-même", i);
+          neighborId = parseId(m.group(9), context, i);
+          if (m.group(10) != null)
+            neighborMeta = parseMeta(m.group(10), i);
+        }
+
+        for (int oldId : oldIds) {
+          int id = newId != null ? newId : oldId;
+
+          for (int j = 0; j < 16; j++) {
+            if (oldMeta == -1 || oldMeta == j) {
+              BlockId source = new BlockId(oldId, j), target = new BlockId(id, newMetas != null ? newMetas[j] : j);
+
+              if (contextual)
+                neighborRules.computeIfAbsent(source, k -> new ArrayList<>()).add(new NeighborRule(dx, dy, dz, neighborId, neighborMeta, target));
+              else
+                idsTable.put(source, target);
+            }
+          }
+        }
       }
     }
-
-    return Collections.unmodifiableMap(itemIdsToNames);
   }
 
   /**
-   * Retourne la table associant les noms des items à leur ID.
+   * Retourne les ID désignés par la source d'une règle.
    * 
-   * @param levelDataPath le chemin vers le level.dat
-   * @return la table des noms/ID
-   * @throws IOException
+   * @param source l'ID numérique, l'ID litéral ou le motif de noms
+   * @param context le contexte de la carte
+   * @param line la ligne de la règle
+   * @return les ID
+   * @throws IOException si une erreur de lecture est survenue
+   * @throws ParseException si l'ID est inconnu ou si aucun nom ne correspond au motif
    */
-  public static Map<String, Integer> getItemsNamesToIdsTable(String levelDataPath) throws IOException {
-    if (itemNamesToIds == null) {
-      NBTTagList list = getItemsIdsList(levelDataPath);
-      itemNamesToIds = new LinkedHashMap<>();
-
-      for (int i = 0; i < list.tagCount(); i++) {
-        NBTTagCompound c = list.getCompoundTagAt(i);
-        itemNamesToIds.put(c.getString("K"), c.getInteger("V"));
-      }
-    }
+  private static List<Integer> parseSourceIds(String source, WorldContext context, int line) throws IOException, ParseException {
+    if (!source.contains("*"))
+      return Collections.singletonList(parseId(source, context, line));
+
+    List<Integer> ids = context.getRegistry().getBlocksIdsMatching(source);
+    if (ids.isEmpty())
+      throw new ParseException(String.format("Aucun ID ne correspond à '%s'", source), line);
 
-    return Collections.unmodifiableMap(itemNamesToIds);
+    return ids;
   }
 
   /**
-   * Retourne la liste des ID de blocs du level.dat donné.
+   * Retourne la valeur d'un ID numérique ou litéral.
    * 
-   * @param levelDataPath le chemin vers le level.dat
-   * @return la liste des ID
-   * @throws IOException
+   * @param id l'ID
+   * @param context le contexte de la carte
+   * @param line la ligne de la règle
+   * @return la valeur de l'ID
+   * @throws IOException si une erreur de lecture est survenue
+   * @throws ParseException si l'ID est inconnu ou invalide
    */
-  private static NBTTagList getBlocksIdsList(String levelDataPath) throws IOException {
-    NBTTagCompound levelData = CompressedStreamTools.readCompressed(new FileInputStream(levelDataPath + "level.dat"));
-    return levelData.getCompoundTag("FML").getCompoundTag("Registries").getCompoundTag("minecraft:blocks").getTagList("ids", NBTBase.COMPOUND);
+  private static int parseId(String id, WorldContext context, int line) throws IOException, ParseException {
+    if (id.matches("\\d+"))
+      return Integer.parseInt(id);
+    if (!id.matches("\\w+:\\w+"))
+      throw new ParseException("Erreur de syntaxe", line);
+
+    int value = context.getRegistry().getBlockId(id);
+    if (value == WorldRegistry.UNKNOWN)
+      throw new ParseException(String.format("ID inconnu '%s'", id), line);
+
+    return value;
   }
 
   /**
-   * Retourne la liste des ID d'items du level.dat donné.
+   * Retourne un metadata.
    * 
-   * @param levelDataPath le chemin vers le level.dat
-   * @return la liste des ID
-   * @throws IOException
+   * @param meta le metadata
+   * @param line la ligne de la règle
+   * @return la valeur du metadata
+   * @throws ParseException si le metadata n'est pas compris entre 0 et 15
    */
-  private static NBTTagList getItemsIdsList(String levelDataPath) throws IOException {
-    NBTTagCompound levelData = CompressedStreamTools.readCompressed(new FileInputStream(levelDataPath + "level.dat"));
-    return levelData.getCompoundTag("FML").getCompoundTag("Registries").getCompoundTag("minecraft:items").getTagList("ids", NBTBase.COMPOUND);
+  private static int parseMeta(String meta, int line) throws ParseException {
+    int value = Integer.parseInt(meta);
+
+    if (value > 15)
+      throw new ParseException(String.format("Metadata invalide '%s'", meta), line);
+
+    return value;
   }
 
   /**
-   * Crée la table des ID.
+   * Retourne les 16 metadatas cibles d'une règle, indexés par le metadata source.
    * 
-   * @param configPath le chemin du fichier de config
-   * @param levelDataPath le chemin vers le level.dat
-   * @return la table des ID
-   * @throws IOException si une erreur de lecture est survenue
-   * @throws ParseException si une erreur de syntaxe a été rencontrée
+   * @param metas un metadata unique ou une table de la forme {m0,m1,...,m15}
+   * @param line la ligne de la règle
+   * @return les metadatas cibles
+   * @throws ParseException si un metadata n'est pas compris entre 0 et 15
    */
-  public static Map<BlockId, BlockId> getIdsTable(String configPath, String levelDataPath) throws IOException, ParseException {
-    if (idsTable == null) {
-      Map<String, Integer> namesToIds = getBlocksNamesToIdsTable(levelDataPath);
-      Pattern digitalIdPattern = Pattern.compile("^(\\d+)(?:/(\\d+))?$");
-      Pattern literalIdPattern = Pattern.compile("^(\\w+:\\w+)(?:/(\\d+))?$");
-      Pattern fullPattern = Pattern.compile("^(\\d+|\\w+:\\w+)(/\\d+)?->((\\d+|\\w+:\\w+)(/\\d+)?|\\*)$");
-
-      try (BufferedReader in = new BufferedReader(new FileReader(configPath))) {
-        String line;
-        int i = 1;
-
-        while ((line = in.readLine()) != null) {
-          if (fullPattern.matcher(line).matches()) {
-            BlockId oldId = null, newId = null;
-            boolean oldHasMeta = true, newHasMeta = true;
-            String[] ids = line.split("->");
-
-            Matcher leftDigitalIdM = digitalIdPattern.matcher(ids[0]);
-            Matcher leftLiteralIdM = literalIdPattern.matcher(ids[0]);
-
-            if (leftDigitalIdM.matches()) {
-              int id = Integer.parseInt(leftDigitalIdM.group(1));
-
-              if (leftDigitalIdM.group(2) != null)
-                oldId = new BlockId(id, Integer.parseInt(leftDigitalIdM.group(2)));
-              else {
-                oldHasMeta = false;
-                oldId = new BlockId(id, -1);
-              }
-            }
-            else if (leftLiteralIdM.matches()) {
-              String litId = leftLiteralIdM.group(1);
-              Integer id = namesToIds.get(litId);
-
-              if (id == null)
-                throw new ParseException(String.format("ID inconnu '%s'", litId), i);
-
-              if (leftLiteralIdM.group(2) != null)
-                oldId = new BlockId(id, Integer.parseInt(leftLiteralIdM.group(2)));
-              else {
-                oldHasMeta = false;
-                oldId = new BlockId(id, -1);
-              }
-            }
+  private static int[] parseMetas(String metas, int line) throws ParseException {
+    int[] values = new int[16];
 
-            if (ids[1].equals("*")) {
-              newId = new BlockId(0, 0);
-            }
-            else {
-              Matcher rightDigitalIdM = digitalIdPattern.matcher(ids[1]);
-              Matcher rightLiteralIdM = literalIdPattern.matcher(ids[1]);
-
-              if (rightDigitalIdM.matches()) {
-                int id = Integer.parseInt(rightDigitalIdM.group(1));
-
-                if (rightDigitalIdM.group(2) != null)
-                  newId = new BlockId(id, Integer.parseInt(rightDigitalIdM.group(2)));
-                else {
-                  newHasMeta = false;
-                  newId = new BlockId(id, -1);
-                }
-              }
-              else if (rightLiteralIdM.matches()) {
-                String litId = rightLiteralIdM.group(1);
-                Integer id = namesToIds.get(litId);
-
-                if (id == null)
-                  throw new ParseException(String.format("ID inconnu '%s'", litId), i);
-
-                if (rightLiteralIdM.group(2) != null)
-                  newId = new BlockId(id, Integer.parseInt(rightLiteralIdM.group(2)));
-                else {
-                  newHasMeta = false;
-                  newId = new BlockId(id, -1);
-                }
-              }
-            }
-
-            if (!oldHasMeta && newHasMeta) {
-              for (int j = 0; j < 16; j++) {
-                idsTable.put(new BlockId(oldId.getId(), j), newId);
-              }
-            }
-            if (oldHasMeta && !newHasMeta) {
-              throw new ParseException("Règle incohérente", i);
-            }
-            else if (!oldHasMeta && !newHasMeta) {
-              for (int j = 0; j < 16; j++) {
-                idsTable.put(new BlockId(oldId.getId(), j), new BlockId(newId.getId(), j));
-              }
-            }
-            else {
-              idsTable.put(oldId, newId);
-            }
-          }
-          else {
-            throw new ParseException("Erreur de syntaxe", i);
-          }
-          i++;
-        }
-      }
+    if (metas.startsWith("{")) {
+      String[] table = metas.substring(1, metas.length() - 1).split(",");
+      for (int j = 0; j < 16; j++)
+        values[j] = parseMeta(table[j], line);
     }
+    else
+      Arrays.fill(values, parseMeta(metas, line));
 
-    return Collections.unmodifiableMap(idsTable);
+    return values;
   }
 
   /**
@@ -267,8 +250,24 @@ public final class Util {
    * @return la valeur
    */
   public static int extractHalfByte(byte[] array, int i) {
-    boolean even = i % 2 == 0;
-    return Byte.toUnsignedInt((byte) ((array[i / 2] & (even ? 0x0f : 0xf0)) >>> (even ? 0 : 4)));
+    // Indice pair : demi-octet de poids faible, indice impair : demi-octet de poids fort.
+    return array[i >> 1] >> ((i & 1) << 2) & 0xf;
+  }
+
+  /**
+   * Indique si tous les octets du tableau sont nuls. La boucle n'a ni branchement ni dépendance
+   * autre que l'accumulateur : le compilateur JIT la vectorise lorsque le processeur le permet.
+   * 
+   * @param array le tableau
+   * @return true si le tableau ne contient que des zéros
+   */
+  public static boolean isZero(byte[] array) {
+    int acc = 0;
+
+    for (int i = 0; i < array.length; i++)
+      acc |= array[i];
+
+    return acc == 0;
   }
 
   /**
@@ -278,10 +277,11 @@ public final class Util {
    * @throws IOException
    */
   public static void displayIds(String levelDataPath) throws IOException {
-    Map<Integer, String> ids = getBlocksIdsToNamesTable(levelDataPath);
+    WorldRegistry registry = WorldRegistry.load(levelDataPath);
 
-    for (int id : new TreeSet<>(ids.keySet())) {
-      System.out.println(id + "=" + ids.get(id));
+    for (int id = 0; id < registry.getBlocksIdsBound(); id++) {
+      if (registry.getBlockName(id) != null)
+        System.out.println(id + "=" + registry.getBlockName(id));
     }
   }
 
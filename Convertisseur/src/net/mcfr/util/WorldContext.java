@@ -0,0 +1,80 @@
+package net.mcfr.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Les données propres à une carte, partagées par tous les traitements qui la concernent : les
+ * registres du level.dat, lus au premier besoin, et les tables des ID déjà analysées. Chaque
+ * navigateur reçoit explicitement le contexte de sa carte, si bien que plusieurs cartes peuvent
+ * être parcourues en même temps par un seul processus.
+ * 
+ * @author Mc-Fr
+ */
+public final class WorldContext {
+  private final String worldDirectory;
+  private WorldRegistry registry;
+  /** Les tables des ID déjà analysées, par chemin de fichier de config. */
+  private final Map<String, Map<BlockId, BlockId>> idsTables;
+
+  /**
+   * Crée le contexte d'une carte. Aucun fichier n'est lu.
+   * 
+   * @param worldDirectory le chemin du dossier de la carte (contient le level.dat et le dossier
+   *          region), terminé par un séparateur
+   */
+  public WorldContext(String worldDirectory) {
+    this.worldDirectory = worldDirectory;
+    this.idsTables = new HashMap<>();
+  }
+
+  /**
+   * @return le chemin du dossier de la carte, terminé par un séparateur
+   */
+  public String getWorldDirectory() {
+    return this.worldDirectory;
+  }
+
+  /**
+   * @return le dossier de la carte
+   */
+  public File getWorldDir() {
+    return new File(this.worldDirectory);
+  }
+
+  /**
+   * Retourne les registres des blocs et des items de la carte. Le level.dat est lu au premier appel.
+   * 
+   * @return les registres
+   * @throws IOException si le level.dat n'a pas pu être lu
+   */
+  public synchronized WorldRegistry getRegistry() throws IOException {
+    if (this.registry == null)
+      this.registry = WorldRegistry.load(this.worldDirectory);
+    return this.registry;
+  }
+
+  /**
+   * Retourne la table des ID d'un fichier de config, analysé au premier appel, voir
+   * {@link Util#parseIdsTable(String, WorldContext)}.
+   * 
+   * @param configPath le chemin du fichier de config
+   * @return la table des ID
+   * @throws IOException si une erreur de lecture est survenue
+   * @throws ParseException si une erreur de syntaxe a été rencontrée
+   */
+  public synchronized Map<BlockId, BlockId> getIdsTable(String configPath) throws IOException, ParseException {
+    Map<BlockId, BlockId> idsTable = this.idsTables.get(configPath);
+
+    if (idsTable == null) {
+      idsTable = Collections.unmodifiableMap(Util.parseIdsTable(configPath, this));
+      this.idsTables.put(configPath, idsTable);
+    }
+
+    return idsTable;
+  }
+}
@@ -0,0 +1,158 @@
+package net.mcfr.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import net.mcfr.minecraft.nbt.CompressedStreamTools;
+import net.mcfr.minecraft.nbt.NBTBase;
+import net.mcfr.minecraft.nbt.NBTTagCompound;
+import net.mcfr.minecraft.nbt.NBTTagList;
+
+/**
+ * Les ID des blocs et des items d'une carte, lus en une seule fois dans le level.dat (registres de
+ * Forge). Les noms sont rangés dans des tableaux indexés par ID et les ID dans un index par nom.
+ * Une instance n'est plus modifiée après son chargement et est partagée par tous les threads.
+ * 
+ * @author Mc-Fr
+ */
+public final class WorldRegistry {
+  /** Valeur retournée pour un nom inconnu. */
+  public static final int UNKNOWN = -1;
+  /** La borne (exclue) des ID acceptés, au-delà desquels une entrée est considérée invalide. */
+  private static final int MAX_ID = 1 << 16;
+
+  private final String[] blockNames;
+  private final Map<String, Integer> blockIds;
+  private final String[] itemNames;
+  private final Map<String, Integer> itemIds;
+
+  private WorldRegistry(NBTTagList blocks, NBTTagList items) {
+    this.blockIds = new HashMap<>();
+    this.blockNames = readEntries(blocks, this.blockIds);
+    this.itemIds = new HashMap<>();
+    this.itemNames = readEntries(items, this.itemIds);
+  }
+
+  /**
+   * Lit les registres du level.dat d'une carte.
+   * 
+   * @param levelDataPath le chemin du dossier contenant le level.dat
+   * @return les registres de la carte
+   * @throws IOException si le level.dat n'a pas pu être lu
+   */
+  public static WorldRegistry load(String levelDataPath) throws IOException {
+    NBTTagCompound levelData;
+
+    try (InputStream in = new FileInputStream(levelDataPath + "level.dat")) {
+      levelData = CompressedStreamTools.readCompressed(in);
+    }
+
+    NBTTagCompound registries = levelData.getCompoundTag("FML").getCompoundTag("Registries");
+    return new WorldRegistry(registries.getCompoundTag("minecraft:blocks").getTagList("ids", NBTBase.COMPOUND),
+        registries.getCompoundTag("minecraft:items").getTagList("ids", NBTBase.COMPOUND));
+  }
+
+  /**
+   * Remplit l'index des ID d'un registre et retourne le tableau de ses noms.
+   * 
+   * @param list les entrées du registre ({@code K} : nom, {@code V} : ID)
+   * @param ids l'index à remplir
+   * @return les noms indexés par ID
+   */
+  private static String[] readEntries(NBTTagList list, Map<String, Integer> ids) {
+    int maxId = -1;
+
+    for (int i = 0; i < list.tagCount(); i++) {
+      int id = list.getCompoundTagAt(i).getInteger("V");
+      if (id >= 0 && id < MAX_ID)
+        maxId = Math.max(maxId, id);
+    }
+
+    String[] names = new String[maxId + 1];
+    for (int i = 0; i < list.tagCount(); i++) {
+      NBTTagCompound entry = list.getCompoundTagAt(i);
+      int id = entry.getInteger("V");
+
+      if (id >= 0 && id < MAX_ID) {
+        names[id] = entry.getString("K");
+        ids.put(names[id], id);
+      }
+    }
+
+    return names;
+  }
+
+  /**
+   * @param id l'ID du bloc
+   * @return le nom du bloc, ou null si l'ID n'est pas attribué
+   */
+  public String getBlockName(int id) {
+    return id >= 0 && id < this.blockNames.length ? this.blockNames[id] : null;
+  }
+
+  /**
+   * @param name le nom du bloc (domaine:nom)
+   * @return l'ID du bloc, ou {@link #UNKNOWN} si le nom est inconnu
+   */
+  public int getBlockId(String name) {
+    return this.blockIds.getOrDefault(name, UNKNOWN);
+  }
+
+  /**
+   * @param name le nom (domaine:nom)
+   * @return true si le nom est celui d'un bloc
+   */
+  public boolean isBlock(String name) {
+    return this.blockIds.containsKey(name);
+  }
+
+  /**
+   * @param id l'ID de l'item
+   * @return le nom de l'item, ou null si l'ID n'est pas attribué
+   */
+  public String getItemName(int id) {
+    return id >= 0 && id < this.itemNames.length ? this.itemNames[id] : null;
+  }
+
+  /**
+   * @param name le nom de l'item (domaine:nom)
+   * @return l'ID de l'item, ou {@link #UNKNOWN} si le nom est inconnu
+   */
+  public int getItemId(String name) {
+    return this.itemIds.getOrDefault(name, UNKNOWN);
+  }
+
+  /**
+   * @return le plus grand ID de bloc attribué plus un
+   */
+  public int getBlocksIdsBound() {
+    return this.blockNames.length;
+  }
+
+  /**
+   * Retourne les ID des blocs dont le nom correspond au motif donné.
+   * 
+   * @param pattern le motif, où * remplace n'importe quelle suite de caractères (ex. : *_slope)
+   * @return les ID correspondants, par ordre croissant
+   */
+  public List<Integer> getBlocksIdsMatching(String pattern) {
+    Pattern regex = Pattern.compile(Arrays.stream(pattern.split("\\*", -1)).map(Pattern::quote).collect(Collectors.joining(".*")));
+    List<Integer> ids = new ArrayList<>();
+
+    for (int id = 0; id < this.blockNames.length; id++) {
+      if (this.blockNames[id] != null && regex.matcher(this.blockNames[id]).matches())
+        ids.add(id);
+    }
+
+    return Collections.unmodifiableList(ids);
+  }
+}
@@ -4,10 +4,18 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import net.mcfr.converter.BlocksConverterTest;
+import net.mcfr.minecraft.RegionFileCacheTest;
+import net.mcfr.minecraft.RegionFileTest;
+import net.mcfr.minecraft.SectorAllocatorTest;
+import net.mcfr.minecraft.nbt.NBTLazyCompoundTest;
+import net.mcfr.minecraft.nbt.NBTStreamReaderTest;
 import net.mcfr.replacer.ReplacerTest;
+import net.mcfr.replacer.TableCacheTest;
 
 @RunWith(Suite.class)
-@SuiteClasses({BlockIdTest.class, UtilTest.class, ReplacerTest.class})
+@SuiteClasses({BlockIdTest.class, UtilTest.class, WorldRegistryTest.class, PackedSectionTest.class, NeighborhoodTest.class, ReplacerTest.class, TableCacheTest.class, SectorAllocatorTest.class,
+    RegionFileTest.class, RegionFileCacheTest.class, NBTStreamReaderTest.class, NBTLazyCompoundTest.class, BlocksConverterTest.class})
 public class AllTests {
   public static final String MAP_PATH = "C:\\Users\\Darmo\\Darmo\\Programmation\\Java\\MCFR\\trunk\\Convertisseur\\Convertisseur\\res\\altria\\";
   public static final String DATA_PATH = "C:\\Users\\Darmo\\Darmo\\Programmation\\Java\\MCFR\\trunk\\Convertisseur\\Convertisseur\\res\\test.cfg";
@@ -0,0 +1,49 @@
+package net.mcfr;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import net.mcfr.finder.Finder;
+import net.mcfr.util.WorldContext;
+
+/**
+ * Compare la durée d'un parcours complet de la carte avec des lecteurs sur threads système puis sur
+ * threads virtuels. Le parcours est une recherche de bloc (Finder), dominée par les lectures.
+ * <p>
+ * Arguments : [chemin_vers_region] [threads] [répétitions]
+ *
+ * @author Mc-Fr
+ */
+public class ExecutionModeBenchmark {
+  public static void main(String[] args) throws IOException, InterruptedException {
+    String path = args.length > 0 ? args[0] : AllTests.MAP_PATH;
+    int threadsNb = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+    // Premier passage pour charger le cache disque et compiler le code.
+    run(path, threadsNb, ExecutionMode.PLATFORM);
+    for (ExecutionMode mode : ExecutionMode.values()) {
+      if (!mode.isAvailable()) {
+        System.out.println(mode + " : indisponible avec cette JVM");
+        continue;
+      }
+
+      long best = Long.MAX_VALUE;
+      for (int i = 0; i < runs; i++)
+        best = Math.min(best, run(path, threadsNb, mode));
+      System.out.format(Locale.ENGLISH, "%s : %.3f s (meilleur de %d)\n", mode, best / 1e9, runs);
+    }
+  }
+
+  private static long run(String path, int threadsNb, ExecutionMode mode) throws IOException, InterruptedException {
+    Finder finder = new Finder(new WorldContext(path), "minecraft:bedrock", -1, true, threadsNb);
+    long start = System.nanoTime();
+
+    finder.setExecutionMode(mode);
+    finder.start();
+    while (!finder.isFinished())
+      Thread.sleep(5);
+
+    return System.nanoTime() - start;
+  }
+}
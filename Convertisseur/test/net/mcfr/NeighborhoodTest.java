@@ -0,0 +1,147 @@
+package net.mcfr;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.mcfr.minecraft.RegionFileCache;
+import net.mcfr.minecraft.nbt.CompressedStreamTools;
+import net.mcfr.minecraft.nbt.NBTTagCompound;
+import net.mcfr.minecraft.nbt.NBTTagList;
+import net.mcfr.util.ChunkBorders;
+import net.mcfr.util.Neighborhood;
+import net.mcfr.util.PackedSection;
+
+public class NeighborhoodTest {
+  private Neighborhood neighborhood;
+
+  @Before
+  public void setUp() {
+    this.neighborhood = new Neighborhood();
+    this.neighborhood.setSection(0, keys(1));
+    this.neighborhood.setSection(1, keys(2));
+  }
+
+  /**
+   * Crée une section dont la clé de chaque bloc encode sa section et sa position.
+   */
+  private static char[] keys(int sectionTag) {
+    char[] keys = new char[PackedSection.BLOCKS_NUMBER];
+
+    for (int i = 0; i < keys.length; i++)
+      keys[i] = (char) (sectionTag << 12 | i);
+    return keys;
+  }
+
+  @Test
+  public void testInsideSection() {
+    this.neighborhood.setCurrentSection(0);
+    this.neighborhood.moveTo(1 << 8 | 5 << 4 | 7);
+
+    assertEquals(1 << 12 | 1 << 8 | 5 << 4 | 7, this.neighborhood.get(0, 0, 0));
+    assertEquals(1 << 12 | 2 << 8 | 4 << 4 | 8, this.neighborhood.get(1, 1, -1));
+  }
+
+  @Test
+  public void testAcrossSections() {
+    this.neighborhood.setCurrentSection(0);
+    this.neighborhood.moveTo(15 << 8 | 3 << 4 | 3);
+    assertEquals(2 << 12 | 0 << 8 | 3 << 4 | 3, this.neighborhood.get(0, 1, 0));
+
+    this.neighborhood.setCurrentSection(1);
+    this.neighborhood.moveTo(15 << 8);
+    assertEquals(0, this.neighborhood.get(0, 1, 0));
+    this.neighborhood.moveTo(0);
+    assertEquals(1 << 12 | 15 << 8, this.neighborhood.get(0, -1, 0));
+
+    this.neighborhood.setCurrentSection(0);
+    assertEquals(0, this.neighborhood.get(0, -1, 0));
+  }
+
+  @Test
+  public void testAcrossChunks() {
+    ChunkBorders west = new ChunkBorders(), northEast = new ChunkBorders();
+    west.setSection(0, keys(3));
+    northEast.setSection(1, keys(4));
+    this.neighborhood.setNeighbor(-1, 0, west);
+    this.neighborhood.setNeighbor(1, -1, northEast);
+
+    this.neighborhood.setCurrentSection(0);
+    this.neighborhood.moveTo(2 << 8 | 6 << 4);
+    assertEquals(3 << 12 | 2 << 8 | 7 << 4 | 15, this.neighborhood.get(-1, 0, 1));
+    this.neighborhood.moveTo(2 << 8);
+    assertEquals(0, this.neighborhood.get(0, 0, -1));
+    assertEquals(0, this.neighborhood.get(-1, 0, -1));
+
+    this.neighborhood.setCurrentSection(1);
+    this.neighborhood.moveTo(15);
+    assertEquals(4 << 12 | 1 << 8 | 15 << 4 | 0, this.neighborhood.get(1, 1, -1));
+    assertEquals(0, this.neighborhood.get(1, 0, 0));
+  }
+
+  @Test
+  public void testBordersMatchSections() {
+    ChunkBorders borders = this.neighborhood.getBorders();
+
+    for (int y = 0; y < 32; y++) {
+      for (int t = 0; t < 16; t++) {
+        int tag = (y >> 4) + 1 << 12 | (y & 15) << 8;
+
+        assertEquals(tag | t, borders.get(t, y, 0));
+        assertEquals(tag | 15 << 4 | t, borders.get(t, y, 15));
+        assertEquals(tag | t << 4, borders.get(0, y, t));
+        assertEquals(tag | t << 4 | 15, borders.get(15, y, t));
+      }
+    }
+    assertEquals(0, borders.get(0, 32, 0));
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    File dir = Files.createTempDirectory("world").toFile();
+    writeChunk(dir, 0, 0, 1);
+    writeChunk(dir, 1, 0, 2);
+    NeighborhoodCache cache = new NeighborhoodCache(dir);
+
+    ChunkBorders east = cache.acquire(1, 0);
+    assertNotNull(east);
+    assertEquals(2, east.get(0, 0, 0) >>> 4);
+    assertNull(cache.acquire(0, 1));
+    assertNull(cache.acquire(-33, 0));
+    assertFalse(RegionFileCache.regionFileExists(dir, -33, 0));
+    // Les faces déjà présentes sont gardées.
+    cache.register(1, 0, new ChunkBorders());
+    assertSame(east, cache.acquire(1, 0));
+
+    // Le chunk (1, 0) attend encore son propre traitement et celui de (0, 0).
+    cache.release(0, 0);
+    assertSame(east, cache.acquire(1, 0));
+    cache.release(1, 0);
+    writeChunk(dir, 1, 0, 3);
+    assertEquals(3, cache.acquire(1, 0).get(0, 0, 0) >>> 4);
+    RegionFileCache.clearRegionFileReferences();
+  }
+
+  private static void writeChunk(File dir, int chunkX, int chunkZ, int id) throws Exception {
+    NBTTagCompound chunk = new NBTTagCompound(), level = new NBTTagCompound(), section = new NBTTagCompound();
+    NBTTagList sections = new NBTTagList();
+    byte[] blocks = new byte[4096];
+
+    Arrays.fill(blocks, (byte) id);
+    section.setByte("Y", (byte) 0);
+    section.setByteArray("Blocks", blocks);
+    section.setByteArray("Data", new byte[2048]);
+    sections.appendTag(section);
+    level.setTag("Sections", sections);
+    chunk.setTag("Level", level);
+    try (DataOutputStream out = RegionFileCache.getChunkOutputStream(dir, chunkX, chunkZ)) {
+      CompressedStreamTools.write(chunk, out);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package net.mcfr;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.mcfr.util.PackedSection;
+import net.mcfr.util.Util;
+
+public class PackedSectionTest {
+  private byte[] blocks, add, data;
+  private PackedSection section;
+
+  @Before
+  public void setUp() {
+    Random random = new Random(3);
+
+    this.blocks = new byte[4096];
+    this.add = new byte[2048];
+    this.data = new byte[2048];
+    random.nextBytes(this.blocks);
+    random.nextBytes(this.add);
+    random.nextBytes(this.data);
+    this.section = new PackedSection();
+  }
+
+  @Test
+  public void testUnpack() {
+    this.section.load(this.blocks, this.add, this.data);
+
+    for (int i = 0; i < this.blocks.length; i++) {
+      assertEquals(Util.getId(this.blocks, this.add, i), this.section.getId(i));
+      assertEquals(Util.extractHalfByte(this.data, i), this.section.getMeta(i));
+    }
+    assertTrue(this.section.hasExtendedIds());
+  }
+
+  @Test
+  public void testUnpackWithoutAdd() {
+    this.section.load(this.blocks, null, this.data);
+
+    for (int i = 0; i < this.blocks.length; i++) {
+      assertEquals(Byte.toUnsignedInt(this.blocks[i]), this.section.getId(i));
+      assertEquals(Util.extractHalfByte(this.data, i), this.section.getMeta(i));
+    }
+    assertFalse(this.section.hasExtendedIds());
+  }
+
+  private static long[] ids(int... ids) {
+    long[] set = new long[64];
+
+    for (int id : ids)
+      set[id >>> 6] |= 1L << id;
+    return set;
+  }
+
+  @Test
+  public void testContainsAnyId() {
+    this.section.load(this.blocks, this.add, this.data);
+    assertTrue(this.section.containsAnyId(ids(Util.getId(this.blocks, this.add, 1000))));
+    assertFalse(this.section.containsAnyId(ids()));
+    // La recherche n'a pas décodé la section : les tableaux chargés sont encore lus.
+    this.blocks[1000]++;
+    assertEquals(Util.getId(this.blocks, this.add, 1000), this.section.getId(1000));
+    assertTrue(this.section.containsAnyId(ids(this.section.getId(1000))));
+
+    this.section.load(this.blocks, null, this.data);
+    assertFalse(this.section.containsAnyId(ids(300)));
+    assertTrue(this.section.containsAnyId(ids(300, this.blocks[5] & 0xff)));
+  }
+
+  @Test
+  public void testPack() {
+    byte[] blocks = new byte[4096], add = new byte[2048], data = new byte[2048];
+
+    this.section.load(this.blocks, this.add, this.data);
+    assertTrue(this.section.pack(blocks, add, data));
+    assertArrayEquals(this.blocks, blocks);
+    assertArrayEquals(this.add, add);
+    assertArrayEquals(this.data, data);
+
+    this.section.load(this.blocks, null, this.data);
+    assertFalse(this.section.pack(blocks, add, data));
+    assertArrayEquals(new byte[2048], add);
+  }
+
+  @Test
+  public void testHasExtendedIdsBeforeDecoding() {
+    this.section.load(this.blocks, new byte[2048], this.data);
+    assertFalse(this.section.hasExtendedIds());
+    this.section.load(this.blocks, this.add, this.data);
+    assertTrue(this.section.hasExtendedIds());
+  }
+
+  @Test
+  public void testSet() {
+    this.section.load(this.blocks, null, this.data);
+    this.section.set(1, 0xabc << 4 | 7);
+
+    assertEquals(0xabc, this.section.getId(1));
+    assertEquals(7, this.section.getMeta(1));
+    assertTrue(this.section.hasExtendedIds());
+  }
+}
@@ -9,29 +9,37 @@ import org.junit.Test;
 
 import net.mcfr.util.BlockId;
 import net.mcfr.util.Util;
+import net.mcfr.util.WorldContext;
+import net.mcfr.util.WorldRegistry;
 
 public class UtilTest {
-  private Map<Integer, String> idsToNames;
-  private Map<String, Integer> namesToIds;
+  private WorldContext context;
+  private WorldRegistry registry;
   private Map<BlockId, BlockId> ids;
 
   @Before
   public void setUp() throws Exception {
-    this.idsToNames = Util.getBlocksIdsToNamesTable(AllTests.MAP_PATH);
-    this.namesToIds = Util.getBlocksNamesToIdsTable(AllTests.MAP_PATH);
-    this.ids = Util.getIdsTable(AllTests.DATA_PATH, AllTests.MAP_PATH);
+    this.context = new WorldContext(AllTests.MAP_PATH);
+    this.registry = this.context.getRegistry();
+    this.ids = this.context.getIdsTable(AllTests.DATA_PATH);
   }
 
   @Test
-  public void testGetIdsToNamesTable() {
-    assertEquals("minecraft:air", this.idsToNames.get(0));
-    assertEquals("minecraft:stone", this.idsToNames.get(1));
+  public void testGetBlockName() {
+    assertEquals("minecraft:air", this.registry.getBlockName(0));
+    assertEquals("minecraft:stone", this.registry.getBlockName(1));
   }
 
   @Test
-  public void testGetNamesToIdsTable() {
-    assertEquals((Integer) 0, this.namesToIds.get("minecraft:air"));
-    assertEquals((Integer) 1, this.namesToIds.get("minecraft:stone"));
+  public void testGetBlockId() {
+    assertEquals(0, this.registry.getBlockId("minecraft:air"));
+    assertEquals(1, this.registry.getBlockId("minecraft:stone"));
+  }
+
+  @Test
+  public void testContextCache() throws Exception {
+    assertSame(this.registry, this.context.getRegistry());
+    assertSame(this.ids, this.context.getIdsTable(AllTests.DATA_PATH));
   }
 
   @Test
@@ -72,4 +80,21 @@ public class UtilTest {
     assertEquals(3, Util.extractHalfByte(bytes, 2));
     assertEquals(6, Util.extractHalfByte(bytes, 3));
   }
+
+  @Test
+  public void testExtractHalfByteAboveSeven() {
+    byte[] bytes = {(byte) (15 << 4 | 9)};
+
+    assertEquals(9, Util.extractHalfByte(bytes, 0));
+    assertEquals(15, Util.extractHalfByte(bytes, 1));
+  }
+
+  @Test
+  public void testIsZero() {
+    byte[] bytes = new byte[2048];
+
+    assertTrue(Util.isZero(bytes));
+    bytes[2047] = (byte) 0x80;
+    assertFalse(Util.isZero(bytes));
+  }
 }
@@ -0,0 +1,100 @@
+package net.mcfr;
+
+import static org.junit.Assert.*;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.mcfr.minecraft.nbt.CompressedStreamTools;
+import net.mcfr.minecraft.nbt.NBTTagCompound;
+import net.mcfr.minecraft.nbt.NBTTagList;
+import net.mcfr.util.BlockId;
+import net.mcfr.util.WorldContext;
+import net.mcfr.util.WorldRegistry;
+
+public class WorldRegistryTest {
+  private WorldRegistry registry;
+
+  @Before
+  public void setUp() throws Exception {
+    this.registry = WorldRegistry.load(createWorld(new String[]{"minecraft:air", "mod:oak_slope", "mod:stone_slope", "invalid"}, new int[]{0, 300, 5, -1}));
+  }
+
+  /**
+   * Crée une carte ne contenant qu'un level.dat avec les blocs donnés et un item.
+   * 
+   * @return le chemin du dossier de la carte
+   */
+  private static String createWorld(String[] blocks, int[] ids) throws Exception {
+    Path dir = Files.createTempDirectory("world");
+    NBTTagCompound root = new NBTTagCompound(), fml = new NBTTagCompound(), registries = new NBTTagCompound();
+
+    registries.setTag("minecraft:blocks", registry(blocks, ids));
+    registries.setTag("minecraft:items", registry(new String[]{"minecraft:stick"}, new int[]{280}));
+    fml.setTag("Registries", registries);
+    root.setTag("FML", fml);
+    try (OutputStream out = Files.newOutputStream(dir.resolve("level.dat"))) {
+      CompressedStreamTools.writeCompressed(root, out);
+    }
+
+    return dir.toString() + "/";
+  }
+
+  private static NBTTagCompound registry(String[] names, int[] ids) {
+    NBTTagCompound registry = new NBTTagCompound();
+    NBTTagList list = new NBTTagList();
+
+    for (int i = 0; i < names.length; i++) {
+      NBTTagCompound entry = new NBTTagCompound();
+      entry.setString("K", names[i]);
+      entry.setInteger("V", ids[i]);
+      list.appendTag(entry);
+    }
+    registry.setTag("ids", list);
+
+    return registry;
+  }
+
+  @Test
+  public void testBlocks() {
+    assertEquals("mod:oak_slope", this.registry.getBlockName(300));
+    assertEquals(300, this.registry.getBlockId("mod:oak_slope"));
+    assertNull(this.registry.getBlockName(1));
+    assertNull(this.registry.getBlockName(301));
+    assertEquals(WorldRegistry.UNKNOWN, this.registry.getBlockId("invalid"));
+    assertEquals(301, this.registry.getBlocksIdsBound());
+    assertTrue(this.registry.isBlock("minecraft:air"));
+    assertFalse(this.registry.isBlock("minecraft:stick"));
+  }
+
+  @Test
+  public void testItems() {
+    assertEquals("minecraft:stick", this.registry.getItemName(280));
+    assertEquals(280, this.registry.getItemId("minecraft:stick"));
+    assertEquals(WorldRegistry.UNKNOWN, this.registry.getItemId("mod:oak_slope"));
+  }
+
+  @Test
+  public void testGetBlocksIdsMatching() {
+    assertEquals(Arrays.asList(5, 300), this.registry.getBlocksIdsMatching("mod:*_slope"));
+    assertTrue(this.registry.getBlocksIdsMatching("*_stairs").isEmpty());
+  }
+
+  @Test
+  public void testContextsAreIndependent() throws Exception {
+    Path config = Files.createTempFile("ids", ".cfg");
+    Files.write(config, "mod:oak_slope->1\n".getBytes(StandardCharsets.UTF_8));
+    WorldContext first = new WorldContext(createWorld(new String[]{"mod:oak_slope"}, new int[]{300}));
+    WorldContext second = new WorldContext(createWorld(new String[]{"mod:oak_slope"}, new int[]{301}));
+
+    assertEquals(new BlockId(1, 0), first.getIdsTable(config.toString()).get(new BlockId(300, 0)));
+    assertEquals(new BlockId(1, 0), second.getIdsTable(config.toString()).get(new BlockId(301, 0)));
+    assertNull(second.getIdsTable(config.toString()).get(new BlockId(300, 0)));
+  }
+}
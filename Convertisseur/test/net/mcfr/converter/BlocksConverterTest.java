@@ -0,0 +1,132 @@
+package net.mcfr.converter;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.mcfr.minecraft.RegionFileCache;
+import net.mcfr.minecraft.nbt.CompressedStreamTools;
+import net.mcfr.minecraft.nbt.NBTBase;
+import net.mcfr.minecraft.nbt.NBTTagCompound;
+import net.mcfr.minecraft.nbt.NBTTagList;
+import net.mcfr.util.WorldContext;
+
+public class BlocksConverterTest {
+  private Path dir;
+
+  @Before
+  public void setUp() throws Exception {
+    this.dir = Files.createTempDirectory("world");
+    Files.write(this.dir.resolve("level.dat"), new byte[]{1, 2, 3});
+    Files.write(this.dir.resolve("ids.cfg"), "1->2\n".getBytes(StandardCharsets.UTF_8));
+  }
+
+  @After
+  public void tearDown() {
+    RegionFileCache.clearRegionFileReferences(this.dir.toFile());
+  }
+
+  /**
+   * Écrit un chunk rempli du bloc 1 avec le nombre de sections donné, lumière comprise.
+   */
+  private void writeChunk(int chunkX, int chunkZ, int sectionsNumber) throws Exception {
+    NBTTagCompound chunk = new NBTTagCompound(), level = new NBTTagCompound();
+    NBTTagList sections = new NBTTagList();
+    byte[] blocks = new byte[4096], light = new byte[2048];
+
+    Arrays.fill(blocks, (byte) 1);
+    Arrays.fill(light, (byte) 7);
+    for (int y = 0; y < sectionsNumber; y++) {
+      NBTTagCompound section = new NBTTagCompound();
+      section.setByte("Y", (byte) y);
+      section.setByteArray("Blocks", blocks);
+      section.setByteArray("Data", new byte[2048]);
+      section.setByteArray("SkyLight", light);
+      section.setByteArray("BlockLight", light);
+      sections.appendTag(section);
+    }
+    level.setTag("Sections", sections);
+    level.setIntArray("HeightMap", new int[256]);
+    chunk.setTag("Level", level);
+    try (DataOutputStream out = RegionFileCache.getChunkOutputStream(this.dir.toFile(), chunkX, chunkZ)) {
+      CompressedStreamTools.write(chunk, out);
+    }
+  }
+
+  private NBTTagList readSections(int chunkX, int chunkZ) throws Exception {
+    try (DataInputStream in = RegionFileCache.getChunkInputStream(this.dir.toFile(), chunkX, chunkZ)) {
+      return CompressedStreamTools.read(in).getCompoundTag("Level").getTagList("Sections", NBTBase.COMPOUND);
+    }
+  }
+
+  private BlocksConverter convert(int level) throws Exception {
+    RegionFileCache.clearRegionFileReferences(this.dir.toFile());
+
+    BlocksConverter converter = new BlocksConverter(new WorldContext(this.dir.toString() + File.separator),
+        Collections.singletonList(this.dir.toString() + File.separator), false, 1);
+    converter.setCompression(level, Deflater.DEFAULT_STRATEGY);
+    converter.start();
+    while (!converter.isFinished())
+      Thread.sleep(5);
+
+    return converter;
+  }
+
+  /**
+   * Les chunks plus grands que le tampon initial des threads (64 Ko une fois décompressés) sont
+   * convertis comme les autres.
+   */
+  @Test
+  public void testLargeChunks() throws Exception {
+    writeChunk(0, 0, 1);
+    writeChunk(1, 0, 6);
+    writeChunk(2, 0, 16);
+    BlocksConverter converter = convert(Deflater.NO_COMPRESSION);
+
+    // Les statistiques sont celles du convertisseur, compressé sans réduction de taille.
+    assertTrue(converter.getCompression().getBytesIn() > 16 * 4096);
+    assertTrue(converter.getCompression().getBytesOut() > converter.getCompression().getBytesIn());
+
+    for (int chunkX = 0; chunkX < 3; chunkX++) {
+      NBTTagList sections = readSections(chunkX, 0);
+
+      assertEquals(chunkX == 0 ? 1 : chunkX == 1 ? 6 : 16, sections.tagCount());
+      for (int i = 0; i < sections.tagCount(); i++) {
+        NBTTagCompound section = sections.getCompoundTagAt(i);
+        assertEquals(2, section.getByteArray("Blocks")[4095]);
+        assertEquals(7, section.getByteArray("SkyLight")[2047]);
+      }
+    }
+  }
+
+  /**
+   * Les règles contextuelles du fichier de config voient les blocs des chunks voisins.
+   */
+  @Test
+  public void testNeighborRules() throws Exception {
+    Files.write(this.dir.resolve("ids.cfg"), "1->2\n1->3@1,0,0=0\n".getBytes(StandardCharsets.UTF_8));
+    writeChunk(0, 0, 1);
+    writeChunk(1, 0, 1);
+    convert(Deflater.DEFAULT_COMPRESSION);
+
+    // Le bord x = 15 du chunk 0 touche le chunk 1, celui du chunk 1 n'a pas de voisin.
+    byte[] blocks0 = readSections(0, 0).getCompoundTagAt(0).getByteArray("Blocks");
+    byte[] blocks1 = readSections(1, 0).getCompoundTagAt(0).getByteArray("Blocks");
+    assertEquals(2, blocks0[15]);
+    assertEquals(2, blocks0[14]);
+    assertEquals(3, blocks1[15]);
+    assertEquals(2, blocks1[14]);
+  }
+}
@@ -0,0 +1,164 @@
+package net.mcfr.minecraft;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compare l'allocation des secteurs lors de la réécriture d'une région fragmentée avec l'ancien
+ * parcours linéaire d'une List&lt;Boolean&gt; (première plage suffisante) et avec le
+ * {@link SectorAllocator} (plus petite plage suffisante). Les deux versions rejouent la logique de
+ * {@link RegionFile#write(int, int, byte[], int)} sans les accès disque : chaque passe réécrit les
+ * 1024 chunks en alternant gros et petits chunks, et les secteurs libérés ne sont rendus à
+ * l'allocateur qu'à l'écriture de l'en-tête, comme dans {@link RegionFile}. La correction de la
+ * réécriture est vérifiée par {@link RegionFileTest}.
+ * <p>
+ * Arguments : [passes] [répétitions]
+ *
+ * @author Mc-Fr
+ */
+public class RegionFileBenchmark {
+  public static void main(String[] args) {
+    int passes = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    Random random = new Random(42);
+    int[][] lengths = new int[passes][1024];
+    
+    for (int pass = 0; pass < passes; pass++) {
+      for (int i = 0; i < 1024; i++) {
+        lengths[pass][i] = random.nextInt(pass % 2 == 0 ? 40000 : 5000);
+      }
+    }
+    
+    for (int run = 0; run < runs; run++) {
+      long start = System.nanoTime();
+      int scanSize = rewriteWithScan(lengths);
+      long scanTime = System.nanoTime() - start;
+      
+      start = System.nanoTime();
+      int allocatorSize = rewriteWithAllocator(lengths);
+      long allocatorTime = System.nanoTime() - start;
+      
+      double writes = passes * 1024.;
+      System.out.format(Locale.ENGLISH, "Passe %d : parcours %.0f ns/écriture (%d secteurs), SectorAllocator %.0f ns/écriture (%d secteurs)\n",
+          run + 1, scanTime / writes, scanSize, allocatorTime / writes, allocatorSize);
+    }
+  }
+  
+  /**
+   * Réécrit les chunks avec l'ancien parcours de la table des secteurs libres.
+   * 
+   * @return la taille finale du fichier en secteurs
+   */
+  private static int rewriteWithScan(int[][] lengths) {
+    int[] offsets = new int[1024];
+    List<Boolean> sectorFree = new ArrayList<Boolean>();
+    
+    sectorFree.add(Boolean.valueOf(false));
+    sectorFree.add(Boolean.valueOf(false));
+    for (int[] pass : lengths) {
+      for (int x = 0; x < pass.length; x++) {
+        int j = offsets[x] >> 8;
+        int k = offsets[x] & 255;
+        int l = (pass[x] + 5) / 4096 + 1;
+        
+        if (j != 0 && k == l) {
+          continue;
+        }
+        
+        for (int i1 = 0; i1 < k; ++i1) {
+          sectorFree.set(j + i1, Boolean.valueOf(true));
+        }
+        
+        int l1 = sectorFree.indexOf(Boolean.valueOf(true));
+        int j1 = 0;
+        
+        if (l1 != -1) {
+          for (int k1 = l1; k1 < sectorFree.size(); ++k1) {
+            if (j1 != 0) {
+              if (sectorFree.get(k1).booleanValue()) {
+                ++j1;
+              }
+              else {
+                j1 = 0;
+              }
+            }
+            else if (sectorFree.get(k1).booleanValue()) {
+              l1 = k1;
+              j1 = 1;
+            }
+            
+            if (j1 >= l) {
+              break;
+            }
+          }
+        }
+        
+        if (j1 >= l) {
+          offsets[x] = l1 << 8 | l;
+          for (int j2 = 0; j2 < l; ++j2) {
+            sectorFree.set(l1 + j2, Boolean.valueOf(false));
+          }
+        }
+        else {
+          offsets[x] = sectorFree.size() << 8 | l;
+          for (int i2 = 0; i2 < l; ++i2) {
+            sectorFree.add(Boolean.valueOf(false));
+          }
+        }
+      }
+    }
+    
+    return sectorFree.size();
+  }
+  
+  /**
+   * Réécrit les chunks avec le {@link SectorAllocator}, en différant la libération des secteurs
+   * jusqu'à l'écriture de l'en-tête.
+   * 
+   * @return la taille finale du fichier en secteurs
+   */
+  private static int rewriteWithAllocator(int[][] lengths) {
+    int[] offsets = new int[1024];
+    BitSet used = new BitSet();
+    List<Integer> pendingFrees = new ArrayList<Integer>();
+    
+    used.set(0, 2);
+    SectorAllocator sectors = new SectorAllocator(used, 2);
+    for (int[] pass : lengths) {
+      for (int x = 0; x < pass.length; x++) {
+        int j = offsets[x] >> 8;
+        int k = offsets[x] & 255;
+        int l = (pass[x] + 5) / 4096 + 1;
+        
+        if (j != 0 && k == l) {
+          continue;
+        }
+        
+        int l1 = sectors.allocate(l);
+        if (l1 == -1 && !pendingFrees.isEmpty()) {
+          for (int offset : pendingFrees) {
+            sectors.free(offset >> 8, offset & 255);
+          }
+          pendingFrees.clear();
+          l1 = sectors.allocate(l);
+        }
+        if (j != 0) {
+          pendingFrees.add(offsets[x]);
+        }
+        
+        offsets[x] = (l1 != -1 ? l1 : sectors.grow(l)) << 8 | l;
+      }
+      
+      // L'en-tête est écrit à la fin de chaque région.
+      for (int offset : pendingFrees) {
+        sectors.free(offset >> 8, offset & 255);
+      }
+      pendingFrees.clear();
+    }
+    
+    return sectors.size();
+  }
+}
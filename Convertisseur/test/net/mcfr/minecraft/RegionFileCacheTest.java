@@ -0,0 +1,57 @@
+package net.mcfr.minecraft;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.mcfr.minecraft.nbt.CompressedStreamTools;
+import net.mcfr.minecraft.nbt.NBTTagCompound;
+
+public class RegionFileCacheTest {
+  private File dir;
+
+  @Before
+  public void setUp() throws Exception {
+    this.dir = Files.createTempDirectory("world").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    RegionFileCache.clearRegionFileReferences(this.dir);
+  }
+
+  /**
+   * Un fichier en cours d'utilisation n'est pas fermé lorsque 256 fichiers sont ouverts.
+   */
+  @Test
+  public void testEvictionKeepsFilesInUse() throws Exception {
+    RegionFile region = RegionFileCache.acquireRegionFile(this.dir, 0, 0);
+    RegionFile idle = RegionFileCache.createOrLoadRegionFile(this.dir, 32, 0);
+    NBTTagCompound chunk = new NBTTagCompound();
+    
+    for (int i = 0; i < 256; i++) {
+      RegionFileCache.createOrLoadRegionFile(this.dir, 0, 32 * (i + 1));
+    }
+    
+    assertSame(region, RegionFileCache.createOrLoadRegionFile(this.dir, 0, 0));
+    assertFalse(idle == RegionFileCache.createOrLoadRegionFile(this.dir, 32, 0));
+    
+    chunk.setInteger("x", 7);
+    try (DataOutputStream out = region.getChunkDataOutputStream(0, 0)) {
+      CompressedStreamTools.write(chunk, out);
+    }
+    RegionFileCache.releaseRegionFile(region);
+    RegionFileCache.clearRegionFileReferences(this.dir);
+    
+    try (DataInputStream in = RegionFileCache.getChunkInputStream(this.dir, 0, 0)) {
+      assertEquals(7, CompressedStreamTools.read(in).getInteger("x"));
+    }
+  }
+}
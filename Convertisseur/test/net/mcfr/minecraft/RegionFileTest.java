@@ -0,0 +1,95 @@
+package net.mcfr.minecraft;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RegionFileTest {
+  @Test
+  public void testFragmentedRegionRewrite() throws Exception {
+    File file = File.createTempFile("r.0.0", ".mca");
+    file.deleteOnExit();
+    Random random = new Random(42);
+    byte[][] chunks = new byte[1024][];
+    RegionFile region = new RegionFile(file);
+    
+    // Alterne gros et petits chunks pour fragmenter le fichier à chaque passe.
+    for (int pass = 0; pass < 6; pass++) {
+      for (int i = 0; i < chunks.length; i++) {
+        chunks[i] = new byte[random.nextInt(pass % 2 == 0 ? 40000 : 5000)];
+        random.nextBytes(chunks[i]);
+        try (DataOutputStream out = region.getChunkDataOutputStream(i % 32, i / 32)) {
+          out.write(chunks[i]);
+        }
+      }
+    }
+    region.close();
+    
+    region = new RegionFile(file);
+    for (int i = 0; i < chunks.length; i++) {
+      try (DataInputStream in = region.getChunkDataInputStream(i % 32, i / 32)) {
+        byte[] read = new byte[chunks[i].length];
+        in.readFully(read);
+        assertTrue(Arrays.equals(chunks[i], read));
+        assertEquals(-1, in.read());
+      }
+    }
+    region.close();
+  }
+  
+  /**
+   * Les secteurs libérés par les chunks déplacés ne sont réutilisés qu'après l'écriture de
+   * l'en-tête : le fichier relu sans fermeture, comme après un arrêt brutal, donne chaque chunk dans
+   * son ancienne ou sa nouvelle version.
+   */
+  @Test
+  public void testMovedChunksKeepTheirSectorsUntilFlush() throws Exception {
+    File file = File.createTempFile("r.0.0", ".mca");
+    file.deleteOnExit();
+    Random random = new Random(42);
+    byte[][] oldChunks = new byte[256][], newChunks = new byte[256][];
+    RegionFile region = new RegionFile(file);
+    
+    for (int i = 0; i < oldChunks.length; i++) {
+      oldChunks[i] = new byte[i % 2 == 0 ? 1000 : 10000];
+      random.nextBytes(oldChunks[i]);
+      try (DataOutputStream out = region.getChunkDataOutputStream(i % 32, i / 32)) {
+        out.write(oldChunks[i]);
+      }
+    }
+    region.flush();
+    
+    // Les petits chunks grandissent, les grands rapetissent : tous changent de place.
+    for (int i = 0; i < newChunks.length; i++) {
+      newChunks[i] = new byte[i % 2 == 0 ? 10000 : 1000];
+      random.nextBytes(newChunks[i]);
+      try (DataOutputStream out = region.getChunkDataOutputStream(i % 32, i / 32)) {
+        out.write(newChunks[i]);
+      }
+    }
+    
+    RegionFile reopened = new RegionFile(file);
+    for (int i = 0; i < oldChunks.length; i++) {
+      try (DataInputStream in = reopened.getChunkDataInputStream(i % 32, i / 32)) {
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        
+        while ((n = in.read(buffer)) != -1) {
+          read.write(buffer, 0, n);
+        }
+        
+        assertTrue(Arrays.equals(oldChunks[i], read.toByteArray()) || Arrays.equals(newChunks[i], read.toByteArray()));
+      }
+    }
+    reopened.close();
+    region.close();
+  }
+}
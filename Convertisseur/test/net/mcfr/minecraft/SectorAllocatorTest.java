@@ -0,0 +1,66 @@
+package net.mcfr.minecraft;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SectorAllocatorTest {
+  private SectorAllocator allocator;
+
+  @Before
+  public void setUp() {
+    // Secteurs : UU.UU..U...U (U = occupé)
+    BitSet used = new BitSet();
+    used.set(0, 2);
+    used.set(3, 5);
+    used.set(7);
+    used.set(11);
+    this.allocator = new SectorAllocator(used, 12);
+  }
+
+  @Test
+  public void testInitialExtents() {
+    assertEquals(3, this.allocator.getFreeExtentsCount());
+    assertTrue(this.allocator.isFree(2));
+    assertFalse(this.allocator.isFree(3));
+    assertTrue(this.allocator.isFree(10));
+    assertFalse(this.allocator.isFree(11));
+  }
+
+  @Test
+  public void testAllocateBestFit() {
+    assertEquals(2, this.allocator.allocate(1));
+    assertEquals(5, this.allocator.allocate(2));
+    assertEquals(8, this.allocator.allocate(2));
+    assertEquals(-1, this.allocator.allocate(2));
+    assertEquals(10, this.allocator.allocate(1));
+    assertEquals(0, this.allocator.getFreeExtentsCount());
+  }
+
+  @Test
+  public void testFreeMergesNeighbours() {
+    this.allocator.free(3, 2);
+    assertEquals(2, this.allocator.getFreeExtentsCount());
+    assertEquals(2, this.allocator.allocate(5));
+    this.allocator.free(7, 1);
+    assertEquals(1, this.allocator.getFreeExtentsCount());
+    assertEquals(7, this.allocator.allocate(4));
+  }
+
+  @Test
+  public void testFreeOutOfFile() {
+    this.allocator.free(11, 5);
+    assertEquals(3, this.allocator.getFreeExtentsCount());
+    assertEquals(8, this.allocator.allocate(4));
+  }
+
+  @Test
+  public void testGrow() {
+    assertEquals(12, this.allocator.grow(3));
+    assertEquals(15, this.allocator.size());
+    assertFalse(this.allocator.isFree(13));
+  }
+}
@@ -0,0 +1,102 @@
+package net.mcfr.minecraft.nbt;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class NBTLazyCompoundTest {
+  private NBTTagCompound root;
+  private byte[] bytes;
+
+  @Before
+  public void setUp() throws Exception {
+    NBTTagCompound level = new NBTTagCompound(), section = new NBTTagCompound(), entity = new NBTTagCompound();
+    NBTTagList sections = new NBTTagList(), entities = new NBTTagList();
+
+    section.setByte("Y", (byte) 3);
+    section.setByteArray("Blocks", new byte[]{1, 2, 3});
+    section.setByteArray("SkyLight", new byte[]{4, 5});
+    sections.appendTag(section);
+    entity.setString("id", "Pig");
+    entities.appendTag(entity);
+    level.setTag("Sections", sections);
+    level.setTag("Entities", entities);
+    level.setIntArray("HeightMap", new int[]{6, 7});
+    this.root = new NBTTagCompound();
+    this.root.setTag("Level", level);
+    this.bytes = write(this.root);
+  }
+
+  private static byte[] write(NBTTagCompound compound) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CompressedStreamTools.write(compound, new DataOutputStream(out));
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testUntouchedIsCopied() throws Exception {
+    assertArrayEquals(this.bytes, write(CompressedStreamTools.readLazy(this.bytes, this.bytes.length)));
+  }
+
+  @Test
+  public void testEquals() throws Exception {
+    assertEquals(this.root, CompressedStreamTools.readLazy(this.bytes, this.bytes.length));
+  }
+
+  @Test
+  public void testAccess() throws Exception {
+    NBTTagCompound level = CompressedStreamTools.readLazy(this.bytes, this.bytes.length).getCompoundTag("Level");
+    NBTTagCompound section = level.getTagList("Sections", NBTBase.COMPOUND).getCompoundTagAt(0);
+
+    assertEquals(NBTBase.LIST, level.getTagId("Entities"));
+    assertEquals(3, section.getByte("Y"));
+    assertArrayEquals(new byte[]{1, 2, 3}, section.getByteArray("Blocks"));
+    assertArrayEquals(new int[]{6, 7}, level.getIntArray("HeightMap"));
+    assertEquals("Pig", level.getTagList("Entities", NBTBase.COMPOUND).getCompoundTagAt(0).getString("id"));
+  }
+
+  @Test
+  public void testCopyKeepsItsBytes() throws Exception {
+    byte[] buffer = this.bytes.clone();
+    NBTBase copy = CompressedStreamTools.readLazy(buffer, buffer.length).copy();
+
+    Arrays.fill(buffer, (byte) 0);
+    assertEquals(this.root, copy);
+    assertArrayEquals(this.bytes, write((NBTTagCompound) copy));
+  }
+
+  @Test
+  public void testRead() throws Exception {
+    NBTBase level = this.root.getTag("Level");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    NBTLazyValue value = new NBTLazyValue(NBTBase.COMPOUND, new byte[0], 0, 0, 0);
+
+    level.write(new DataOutputStream(out));
+    value.read(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), 1, NBTSizeTracker.INFINITE);
+    assertEquals(level, value.decode());
+  }
+
+  @Test
+  public void testChangesAreWritten() throws Exception {
+    NBTTagCompound chunk = CompressedStreamTools.readLazy(this.bytes, this.bytes.length);
+    NBTTagCompound level = chunk.getCompoundTag("Level");
+    NBTTagCompound section = level.getTagList("Sections", NBTBase.COMPOUND).getCompoundTagAt(0);
+
+    section.getByteArray("Blocks")[0] = 9;
+    level.setTag("Entities", new NBTTagList());
+    chunk = CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(write(chunk))));
+    level = chunk.getCompoundTag("Level");
+    section = level.getTagList("Sections", NBTBase.COMPOUND).getCompoundTagAt(0);
+
+    assertArrayEquals(new byte[]{9, 2, 3}, section.getByteArray("Blocks"));
+    assertArrayEquals(new byte[]{4, 5}, section.getByteArray("SkyLight"));
+    assertEquals(0, level.getTagList("Entities", NBTBase.COMPOUND).tagCount());
+  }
+}
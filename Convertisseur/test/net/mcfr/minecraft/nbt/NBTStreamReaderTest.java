@@ -0,0 +1,131 @@
+package net.mcfr.minecraft.nbt;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class NBTStreamReaderTest {
+  private byte[] bytes;
+
+  @Before
+  public void setUp() throws Exception {
+    NBTTagCompound root = new NBTTagCompound(), level = new NBTTagCompound(), section = new NBTTagCompound();
+    NBTTagList sections = new NBTTagList(), entities = new NBTTagList();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    section.setByte("Y", (byte) 3);
+    section.setByteArray("Blocks", new byte[]{1, 2, 3});
+    sections.appendTag(section);
+    entities.appendTag(new NBTTagCompound());
+    level.setTag("Sections", sections);
+    level.setTag("Entities", entities);
+    level.setIntArray("HeightMap", new int[]{4, 5});
+    level.setString("Name", "test");
+    root.setTag("Level", level);
+    CompressedStreamTools.write(root, new DataOutputStream(out));
+    this.bytes = out.toByteArray();
+  }
+
+  /**
+   * Enregistre les événements reçus sous forme de texte, en sautant les entrées dont le nom est
+   * donné.
+   */
+  private List<String> visit(String... skipped) throws Exception {
+    List<String> events = new ArrayList<>();
+
+    CompressedStreamTools.visit(new DataInputStream(new ByteArrayInputStream(this.bytes)), new NBTVisitor() {
+      @Override
+      public boolean visitEntry(byte type, String key) {
+        events.add(key);
+        return !Arrays.asList(skipped).contains(key);
+      }
+
+      @Override
+      public void startCompound() {
+        events.add("{");
+      }
+
+      @Override
+      public void endCompound() {
+        events.add("}");
+      }
+
+      @Override
+      public boolean startList(byte elementType, int length) {
+        events.add("[" + length);
+        return true;
+      }
+
+      @Override
+      public void endList() {
+        events.add("]");
+      }
+
+      @Override
+      public void visitByte(byte value) {
+        events.add("b" + value);
+      }
+
+      @Override
+      public void visitString(String value) {
+        events.add("'" + value + "'");
+      }
+
+      @Override
+      public void visitByteArray(byte[] value, int length) {
+        events.add(Arrays.toString(Arrays.copyOf(value, length)));
+      }
+
+      @Override
+      public void visitIntArray(int[] value, int length) {
+        events.add(Arrays.toString(Arrays.copyOf(value, length)));
+      }
+    });
+
+    return events;
+  }
+
+  @Test
+  public void testEvents() throws Exception {
+    List<String> events = visit();
+    int sections = events.indexOf("Sections");
+
+    assertEquals(Arrays.asList("{", "Level", "{"), events.subList(0, 3));
+    assertEquals(Arrays.asList("}", "}"), events.subList(events.size() - 2, events.size()));
+    assertEquals(Arrays.asList("Sections", "[1", "{"), events.subList(sections, sections + 3));
+    assertTrue(events.contains("[1, 2, 3]"));
+    assertTrue(events.contains("b3"));
+    assertEquals(events.indexOf("HeightMap") + 1, events.indexOf("[4, 5]"));
+    assertEquals(events.indexOf("Name") + 1, events.indexOf("'test'"));
+  }
+
+  @Test
+  public void testSkip() throws Exception {
+    List<String> events = visit("Sections", "Entities", "HeightMap");
+
+    assertFalse(events.contains("[1, 2, 3]"));
+    assertFalse(events.contains("Y"));
+    assertFalse(events.contains("[4, 5]"));
+    assertEquals(events.indexOf("Name") + 1, events.indexOf("'test'"));
+    assertEquals(Arrays.asList("}", "}"), events.subList(events.size() - 2, events.size()));
+  }
+
+  @Test
+  public void testRootMustBeCompound() throws Exception {
+    try {
+      CompressedStreamTools.visit(new DataInputStream(new ByteArrayInputStream(new byte[]{NBTBase.LIST, 0, 0})), new NBTVisitor() {});
+      fail();
+    }
+    catch (IOException e) {}
+  }
+}
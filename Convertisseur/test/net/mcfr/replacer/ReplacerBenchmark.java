@@ -0,0 +1,135 @@
+package net.mcfr.replacer;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import net.mcfr.util.BlockId;
+import net.mcfr.util.PackedSection;
+import net.mcfr.util.Util;
+
+/**
+ * Compare la conversion de sections avec l'ancienne table Map&lt;BlockId, BlockId&gt; (un BlockId
+ * alloué et haché par bloc), avec le tableau compilé du {@link Replacer} bloc par bloc et avec
+ * {@link Replacer#replaceSection(PackedSection)}, avec ou sans palette (décompression et
+ * recompression de la {@link PackedSection} comprises). Mesure aussi le rejet des sections par
+ * {@link Replacer#mayReplace(PackedSection)} lorsque les règles ne portent que sur des ID de mods
+ * (supérieurs à 255) ; lancer avec -XX:-UseSuperWord pour comparer avec le code non vectorisé.
+ * <p>
+ * Arguments : [sections] [règles] [répétitions]
+ *
+ * @author Mc-Fr
+ */
+public class ReplacerBenchmark {
+  public static void main(String[] args) {
+    int sectionsNb = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int rulesNb = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    Random random = new Random(42);
+    Map<BlockId, BlockId> idsTable = new HashMap<>();
+
+    for (int i = 0; i < rulesNb; i++)
+      idsTable.put(new BlockId(random.nextInt(512), random.nextInt(16)), new BlockId(random.nextInt(4096), random.nextInt(16)));
+
+    Replacer replacer = new Replacer(idsTable);
+    Map<BlockId, BlockId> modsTable = new HashMap<>();
+
+    for (int i = 0; i < rulesNb; i++)
+      modsTable.put(new BlockId(256 + random.nextInt(3840), random.nextInt(16)), new BlockId(random.nextInt(4096), random.nextInt(16)));
+
+    Replacer modsReplacer = new Replacer(modsTable);
+    SectionPalette palette = new SectionPalette();
+    PackedSection section = new PackedSection();
+    byte[][] blocks = new byte[sectionsNb][4096];
+    byte[][] add = new byte[sectionsNb][2048];
+    byte[][] data = new byte[sectionsNb][2048];
+
+    for (int i = 0; i < sectionsNb; i++) {
+      // Peu de blocs distincts par section, comme sur une vraie carte.
+      for (int j = 0; j < 4096; j++)
+        blocks[i][j] = (byte) random.nextInt(j < 3072 ? 8 : 256);
+      random.nextBytes(data[i]);
+    }
+
+    for (int run = 0; run < runs; run++) {
+      long mapTime = 0, tableTime = 0, sectionTime = 0, paletteTime = 0, rejectTime = 0;
+      int mapChanged = 0, tableChanged = 0, rejected = 0;
+
+      for (int i = 0; i < sectionsNb; i++) {
+        byte[] b = blocks[i].clone(), a = add[i].clone(), d = data[i].clone();
+        long start = System.nanoTime();
+        mapChanged += replaceWithMap(idsTable, b, a, d);
+        mapTime += System.nanoTime() - start;
+
+        b = blocks[i].clone();
+        a = add[i].clone();
+        d = data[i].clone();
+        start = System.nanoTime();
+        tableChanged += replaceWithTable(replacer, b, a, d);
+        tableTime += System.nanoTime() - start;
+
+        b = blocks[i].clone();
+        a = add[i].clone();
+        d = data[i].clone();
+        start = System.nanoTime();
+        section.load(b, a, d);
+        if (replacer.replaceSection(section))
+          section.pack(b, a, d);
+        sectionTime += System.nanoTime() - start;
+
+        b = blocks[i].clone();
+        a = add[i].clone();
+        d = data[i].clone();
+        start = System.nanoTime();
+        section.load(b, a, d);
+        if (replacer.replaceSection(section, palette))
+          section.pack(b, a, d);
+        paletteTime += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        section.load(blocks[i], null, data[i]);
+        if (!modsReplacer.mayReplace(section))
+          rejected++;
+        rejectTime += System.nanoTime() - start;
+      }
+
+      double blocksNb = sectionsNb * 4096.;
+      System.out.format(Locale.ENGLISH,
+          "Passe %d : Map %.1f ns/bloc, tableau %.1f ns/bloc, section %.1f ns/bloc, palette %.1f ns/bloc (%d/%d blocs modifiés), rejet %.2f ns/bloc (%d sections)\n",
+          run + 1, mapTime / blocksNb, tableTime / blocksNb, sectionTime / blocksNb, paletteTime / blocksNb, mapChanged, tableChanged,
+          rejectTime / blocksNb, rejected);
+    }
+  }
+
+  private static int replaceWithMap(Map<BlockId, BlockId> idsTable, byte[] blocks, byte[] add, byte[] data) {
+    int changed = 0;
+
+    for (int i = 0; i < blocks.length; i++) {
+      BlockId newId = idsTable.get(new BlockId(Util.getId(blocks, add, i), Util.extractHalfByte(data, i)));
+
+      if (newId != null) {
+        Replacer.replaceBlockWithMeta(blocks, add, data, i, newId);
+        changed++;
+      }
+    }
+
+    return changed;
+  }
+
+  private static int replaceWithTable(Replacer replacer, byte[] blocks, byte[] add, byte[] data) {
+    int changed = 0;
+
+    for (int i = 0; i < blocks.length; i++) {
+      int key = Replacer.getKey(Util.getId(blocks, add, i), Util.extractHalfByte(data, i));
+      int newKey = replacer.replace(key);
+
+      if (newKey != key) {
+        Replacer.replaceBlockWithMeta(blocks, add, data, i, newKey);
+        changed++;
+      }
+    }
+
+    return changed;
+  }
+}
@@ -2,19 +2,28 @@ package net.mcfr.replacer;
 
 import static org.junit.Assert.*;
 
+import java.util.BitSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import net.mcfr.AllTests;
 import net.mcfr.util.BlockId;
+import net.mcfr.util.Neighborhood;
+import net.mcfr.util.PackedSection;
+import net.mcfr.util.WorldContext;
 
 public class ReplacerTest {
   private static Replacer replacer;
 
   @BeforeClass
   public static void setUpBeforeClass() throws Exception {
-    replacer = new Replacer(AllTests.DATA_PATH, AllTests.MAP_PATH);
+    replacer = new Replacer(AllTests.DATA_PATH, new WorldContext(AllTests.MAP_PATH));
   }
 
   private byte[] ids, add, meta;
@@ -42,6 +51,191 @@ public class ReplacerTest {
     assertEquals(5, this.meta[2]);
   }
 
+  @Test
+  public void testReplaceKey() {
+    Map<BlockId, BlockId> table = new HashMap<>();
+    table.put(new BlockId(1, 5), new BlockId(6, 5));
+    table.put(new BlockId(4, 0), new BlockId(256, 1));
+    table.put(new BlockId(4, 16), new BlockId(3, 0));
+    Replacer replacer = new Replacer(table);
+
+    assertEquals(Replacer.getKey(6, 5), replacer.replace(Replacer.getKey(1, 5)));
+    assertEquals(Replacer.getKey(256, 1), replacer.replace(Replacer.getKey(4, 0)));
+    assertEquals(Replacer.getKey(1, 4), replacer.replace(Replacer.getKey(1, 4)));
+    assertEquals(Replacer.getKey(4095, 15), replacer.replace(Replacer.getKey(4095, 15)));
+    assertNull(replacer.replace(this.ids, this.add, this.meta, 4, new BlockId(1, 4)));
+  }
+
+  @Test
+  public void testChainedTables() {
+    Map<BlockId, BlockId> first = new HashMap<>(), second = new HashMap<>();
+    first.put(new BlockId(1, 0), new BlockId(2, 0));
+    first.put(new BlockId(4, 0), new BlockId(5, 3));
+    first.put(new BlockId(6, 0), new BlockId(7, 0));
+    second.put(new BlockId(2, 0), new BlockId(3, 1));
+    second.put(new BlockId(7, 0), new BlockId(6, 0));
+    second.put(new BlockId(8, 0), new BlockId(9, 0));
+    Replacer replacer = new Replacer(Arrays.asList(first, second));
+
+    assertEquals(Replacer.getKey(3, 1), replacer.replace(Replacer.getKey(1, 0)));
+    assertEquals(Replacer.getKey(3, 1), replacer.replace(Replacer.getKey(2, 0)));
+    assertEquals(Replacer.getKey(5, 3), replacer.replace(Replacer.getKey(4, 0)));
+    assertEquals(Replacer.getKey(6, 0), replacer.replace(Replacer.getKey(6, 0)));
+    assertEquals(Replacer.getKey(9, 0), replacer.replace(Replacer.getKey(8, 0)));
+    assertEquals(Replacer.getKey(1, 1), replacer.replace(Replacer.getKey(1, 1)));
+    assertEquals(1, replacer.getWarnings().size());
+    assertTrue(replacer.getWarnings().get(0).contains("6/0"));
+
+    second.put(new BlockId(1, 0), new BlockId(9, 0));
+    replacer = new Replacer(Arrays.asList(first, second));
+    assertEquals(Replacer.getKey(3, 1), replacer.replace(Replacer.getKey(1, 0)));
+    assertEquals(2, replacer.getWarnings().size());
+    assertTrue(replacer.getWarnings().get(0).startsWith("table 2 : 1 ") && replacer.getWarnings().get(0).contains("1/0"));
+  }
+
+  @Test
+  public void testReplaceSection() {
+    Random random = new Random(1);
+    Map<BlockId, BlockId> table = new HashMap<>();
+    for (int i = 0; i < 200; i++)
+      table.put(new BlockId(random.nextInt(300), random.nextInt(16)), new BlockId(random.nextInt(4096), random.nextInt(16)));
+    Replacer replacer = new Replacer(table);
+    PackedSection section = new PackedSection();
+    int[] expected = new int[PackedSection.BLOCKS_NUMBER];
+
+    for (int i = 0; i < expected.length; i++) {
+      section.set(i, Replacer.getKey(random.nextInt(0x120), random.nextInt(16)));
+      expected[i] = replacer.replace(section.get(i));
+    }
+
+    assertTrue(replacer.replaceSection(section));
+    for (int i = 0; i < expected.length; i++)
+      assertEquals(expected[i], section.get(i));
+    assertFalse(new Replacer(new HashMap<>()).replaceSection(section));
+    assertEquals(expected[0], section.get(0));
+  }
+
+  @Test
+  public void testReplaceSectionWithPalette() {
+    Random random = new Random(2);
+    Map<BlockId, BlockId> table = new HashMap<>();
+    for (int i = 0; i < 20; i++)
+      table.put(new BlockId(random.nextInt(8), random.nextInt(4)), new BlockId(random.nextInt(4096), random.nextInt(16)));
+    Replacer replacer = new Replacer(table);
+    SectionPalette palette = new SectionPalette();
+    PackedSection section = new PackedSection(), expected = new PackedSection();
+
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 0; i < PackedSection.BLOCKS_NUMBER; i++) {
+        section.set(i, Replacer.getKey(random.nextInt(8), random.nextInt(4)));
+        expected.set(i, section.get(i));
+      }
+
+      assertTrue(replacer.replaceSection(expected));
+      assertTrue(replacer.replaceSection(section, palette));
+      assertTrue(palette.size() <= 32);
+      assertArrayEquals(expected.getKeys(), section.getKeys());
+    }
+    assertFalse(new Replacer(new HashMap<>()).replaceSection(section, palette));
+  }
+
+  @Test
+  public void testReplaceSectionWithNeighborhood() {
+    Map<BlockId, BlockId> table = new HashMap<>();
+    table.put(new BlockId(1, 0), new BlockId(9, 0));
+    table.put(new BlockId(4, 0), new BlockId(3, 0));
+    Replacer replacer = new Replacer(table);
+    // La pierre exposée à l'air devient de l'herbe, les autres suivent la table.
+    replacer.addContextualRule(1, 0, (key, neighborhood) -> neighborhood.get(0, 1, 0) == 0 ? Replacer.getKey(2, 0) : replacer.replace(key));
+    PackedSection section = new PackedSection();
+    Neighborhood neighborhood = new Neighborhood();
+
+    section.set(0, Replacer.getKey(1, 0));
+    section.set(256, Replacer.getKey(1, 0));
+    section.set(1, Replacer.getKey(4, 0));
+    section.set(4095, Replacer.getKey(1, 0));
+    neighborhood.setSection(0, section.getKeys());
+    neighborhood.setCurrentSection(0);
+
+    assertTrue(replacer.hasContextualRules());
+    assertTrue(replacer.replaceSection(section, neighborhood));
+    assertEquals(Replacer.getKey(9, 0), section.get(0));
+    assertEquals(Replacer.getKey(2, 0), section.get(256));
+    assertEquals(Replacer.getKey(3, 0), section.get(1));
+    assertEquals(Replacer.getKey(2, 0), section.get(4095));
+    assertFalse(new Replacer(table).hasContextualRules());
+  }
+
+  @Test
+  public void testMayReplace() {
+    Map<BlockId, BlockId> table = new HashMap<>();
+    table.put(new BlockId(1, 5), new BlockId(6, 5));
+    table.put(new BlockId(300, 0), new BlockId(3, 0));
+    table.put(new BlockId(7, 0), new BlockId(7, 0));
+    Replacer replacer = new Replacer(table);
+    PackedSection section = new PackedSection();
+
+    section.set(100, Replacer.getKey(7, 0));
+    assertFalse(replacer.mayReplace(section));
+    section.set(4095, Replacer.getKey(1, 0));
+    assertTrue(replacer.mayReplace(section));
+    section.set(4095, Replacer.getKey(300 & 0xff, 0));
+    assertFalse(replacer.mayReplace(section));
+    section.set(4095, Replacer.getKey(300, 0));
+    assertTrue(replacer.mayReplace(section));
+
+    table.remove(new BlockId(1, 5));
+    replacer = new Replacer(table);
+    section.set(0, Replacer.getKey(1, 0));
+    assertTrue(replacer.mayReplace(section));
+    section.set(4095, 0);
+    assertFalse(replacer.mayReplace(section));
+
+    // Sections encore sous forme de tableaux Minecraft
+    byte[] blocks = new byte[4096], add = new byte[2048];
+    table.put(new BlockId(1, 5), new BlockId(6, 5));
+    replacer = new Replacer(table);
+    section.load(blocks, null, new byte[2048]);
+    assertFalse(replacer.mayReplace(section));
+    blocks[4095] = 1;
+    assertTrue(replacer.mayReplace(section));
+    blocks[4095] = (byte) 300;
+    section.load(blocks, add, new byte[2048]);
+    assertFalse(replacer.mayReplace(section));
+    add[2047] = (byte) (300 >>> 8 << 4);
+    assertTrue(replacer.mayReplace(section));
+  }
+
+  @Test
+  public void testRemapTargetMetas() {
+    Map<BlockId, BlockId> table = new HashMap<>();
+    table.put(new BlockId(1, 5), new BlockId(300, 5));
+    table.put(new BlockId(4, 0), new BlockId(3, 2));
+    table.put(new BlockId(301, 3), new BlockId(301, 3));
+    Replacer replacer = new Replacer(table);
+    BitSet slopes = new BitSet();
+    slopes.set(300);
+    slopes.set(301);
+
+    replacer.remapTargetMetas(slopes, new int[]{2, 1, 3, 0, 6, 5, 7, 4, 2, 1, 3, 0, 6, 5, 7, 4});
+    assertEquals(Replacer.getKey(300, 5), replacer.replace(Replacer.getKey(1, 5)));
+    assertEquals(Replacer.getKey(3, 2), replacer.replace(Replacer.getKey(4, 0)));
+    assertEquals(Replacer.getKey(301, 0), replacer.replace(Replacer.getKey(301, 3)));
+    assertEquals(Replacer.getKey(301, 1), replacer.replace(Replacer.getKey(301, 1)));
+  }
+
+  @Test
+  public void testReplaceBlockWithKey() {
+    Replacer.replaceBlockWithMeta(this.ids, this.add, this.meta, 0, Replacer.getKey(5 << 8 | 4, 2));
+    assertEquals(4, this.ids[0]);
+    assertEquals(1 << 4 | 5, this.add[0]);
+    assertEquals(2, this.meta[0]);
+    Replacer.replaceBlockWithMeta(this.ids, this.add, this.meta, 1, Replacer.getKey(3, 6));
+    assertEquals(3, this.ids[1]);
+    assertEquals(5, this.add[0]);
+    assertEquals(6 << 4 | 2, this.meta[0]);
+  }
+
   @Test
   public void testReplaceBlockWithMeta() {
     byte[] add = {0};
@@ -0,0 +1,175 @@
+package net.mcfr.replacer;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.mcfr.util.BlockId;
+import net.mcfr.util.NeighborRule;
+import net.mcfr.util.Neighborhood;
+import net.mcfr.util.PackedSection;
+import net.mcfr.util.WorldContext;
+
+public class TableCacheTest {
+  private Path dir;
+  private List<String> configPaths;
+
+  @Before
+  public void setUp() throws Exception {
+    this.dir = Files.createTempDirectory("config");
+    Files.write(this.dir.resolve("ids.cfg"), "1->2\n4/0->3/1\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(this.dir.resolve("level.dat"), new byte[]{1, 2, 3});
+    this.configPaths = Collections.singletonList(this.dir.resolve("ids.cfg").toString());
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+    byte[] digest = TableCache.digest(Replacer.class, this.configPaths, this.dir.toString() + "/");
+    char[] table = new char[Replacer.KEYS_NUMBER], loadedTable = new char[Replacer.KEYS_NUMBER];
+    BitSet rules = new BitSet(), loadedRules = new BitSet();
+    Map<Integer, List<NeighborRule>> neighborRules = new TreeMap<>(), loadedNeighborRules = new TreeMap<>();
+    List<String> warnings = new ArrayList<>();
+
+    for (int key = 0; key < table.length; key++)
+      table[key] = (char) (key * 7);
+    rules.set(16);
+    rules.set(Replacer.KEYS_NUMBER - 1);
+    neighborRules.put(Replacer.getKey(1, 0), Arrays.asList(new NeighborRule(0, 1, 0, 0, -1, new BlockId(3, 0)),
+        new NeighborRule(-1, 0, 1, 4095, 15, new BlockId(4095, 15))));
+    neighborRules.put(Replacer.getKey(2, 3), Arrays.asList(new NeighborRule(1, -1, -1, 7, 2, new BlockId(0, 0))));
+    Path path = TableCache.getPath(this.configPaths);
+    TableCache.save(path, digest, table, rules, neighborRules, Arrays.asList("règle sans effet"));
+
+    assertTrue(TableCache.load(path, digest, loadedTable, loadedRules, loadedNeighborRules, warnings));
+    assertArrayEquals(table, loadedTable);
+    assertEquals(rules, loadedRules);
+    assertEquals(neighborRules.toString(), loadedNeighborRules.toString());
+    assertEquals(Arrays.asList("règle sans effet"), warnings);
+
+    byte[] otherDigest = digest.clone();
+    otherDigest[0]++;
+    assertFalse(TableCache.load(path, otherDigest, loadedTable, loadedRules, loadedNeighborRules, warnings));
+  }
+
+  @Test
+  public void testDigest() throws Exception {
+    String levelDataPath = this.dir.toString() + "/";
+    byte[] digest = TableCache.digest(Replacer.class, this.configPaths, levelDataPath);
+
+    assertArrayEquals(digest, TableCache.digest(Replacer.class, this.configPaths, levelDataPath));
+    assertFalse(Arrays.equals(digest, TableCache.digest(AltriaUpdateReplacer.class, this.configPaths, levelDataPath)));
+    Files.write(this.dir.resolve("level.dat"), new byte[]{1, 2, 4});
+    assertFalse(Arrays.equals(digest, TableCache.digest(Replacer.class, this.configPaths, levelDataPath)));
+  }
+
+  @Test
+  public void testReplacerUsesCache() throws Exception {
+    WorldContext context = new WorldContext(this.dir.toString() + "/");
+    Replacer replacer = new Replacer(this.configPaths, context);
+
+    assertTrue(Files.exists(TableCache.getPath(this.configPaths)));
+    assertEquals(Replacer.getKey(3, 1), replacer.replace(Replacer.getKey(4, 0)));
+    replacer = new Replacer(this.configPaths, new WorldContext(context.getWorldDirectory()));
+    assertEquals(Replacer.getKey(2, 5), replacer.replace(Replacer.getKey(1, 5)));
+    assertEquals(Replacer.getKey(4, 1), replacer.replace(Replacer.getKey(4, 1)));
+  }
+
+  @Test
+  public void testNeighborRules() throws Exception {
+    Files.write(this.dir.resolve("ids.cfg"), "1->2\n1->3@0,1,0=0\n1->=/4@1,0,0=4/2\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(this.dir.resolve("next.cfg"), "3->7\n".getBytes(StandardCharsets.UTF_8));
+    List<String> configPaths = Arrays.asList(this.dir.resolve("ids.cfg").toString(), this.dir.resolve("next.cfg").toString());
+    PackedSection section = new PackedSection();
+    Neighborhood neighborhood = new Neighborhood();
+
+    section.set(0, Replacer.getKey(1, 0));
+    section.set(256, Replacer.getKey(1, 0));
+    section.set(512, Replacer.getKey(1, 0));
+    section.set(513, Replacer.getKey(4, 2));
+    section.set(768, Replacer.getKey(1, 0));
+    neighborhood.setSection(0, section.getKeys().clone());
+    neighborhood.setCurrentSection(0);
+
+    // Deux fois, la seconde avec la table du cache.
+    for (int n = 0; n < 2; n++) {
+      PackedSection converted = new PackedSection();
+      Replacer replacer = new Replacer(configPaths, new WorldContext(this.dir.toString() + "/"));
+
+      converted.load(section.getKeys());
+      assertTrue(replacer.hasContextualRules());
+      assertTrue(replacer.mayReplace(converted));
+      assertTrue(replacer.replaceSection(converted, neighborhood));
+      assertEquals(Replacer.getKey(2, 0), converted.get(0));
+      assertEquals(Replacer.getKey(2, 0), converted.get(256));
+      assertEquals(Replacer.getKey(1, 4), converted.get(512));
+      assertEquals(Replacer.getKey(7, 0), converted.get(768));
+      assertEquals(Replacer.getKey(2, 0), replacer.replace(Replacer.getKey(1, 0)));
+    }
+
+    Files.write(this.dir.resolve("next.cfg"), "3->7@0,-1,0=1\n".getBytes(StandardCharsets.UTF_8));
+    try {
+      new Replacer(configPaths, new WorldContext(this.dir.toString() + "/"));
+      fail();
+    }
+    catch (ParseException e) {}
+    Files.write(this.dir.resolve("ids.cfg"), "1->3@0,0,0=0\n".getBytes(StandardCharsets.UTF_8));
+    try {
+      new Replacer(this.configPaths, new WorldContext(this.dir.toString() + "/"));
+      fail();
+    }
+    catch (ParseException e) {}
+  }
+
+  /**
+   * Un remplaceur qui tourne les metadatas des blocs 7, comme le fait {@link AltriaUpdateReplacer}
+   * pour les pentes.
+   */
+  public static class RemapReplacer extends Replacer {
+    public RemapReplacer(List<String> configPaths, WorldContext context) throws Exception {
+      super(configPaths, context);
+    }
+
+    @Override
+    protected void adjustRules(WorldContext context) {
+      BitSet ids = new BitSet();
+      ids.set(7);
+      remapTargetMetas(ids, new int[]{2, 1, 3, 0, 6, 5, 7, 4, 2, 1, 3, 0, 6, 5, 7, 4});
+    }
+  }
+
+  @Test
+  public void testNeighborRulesAreAdjusted() throws Exception {
+    Files.write(this.dir.resolve("ids.cfg"), "1->7\n2->7@0,1,0=0\n".getBytes(StandardCharsets.UTF_8));
+    PackedSection section = new PackedSection();
+    Neighborhood neighborhood = new Neighborhood();
+
+    section.set(0, Replacer.getKey(1, 0));
+    section.set(1, Replacer.getKey(2, 0));
+    neighborhood.setSection(0, section.getKeys().clone());
+    neighborhood.setCurrentSection(0);
+
+    // La cible contextuelle est ajustée comme celle de la table, aussi avec la table du cache.
+    for (int n = 0; n < 2; n++) {
+      PackedSection converted = new PackedSection();
+      Replacer replacer = new RemapReplacer(this.configPaths, new WorldContext(this.dir.toString() + "/"));
+
+      converted.load(section.getKeys());
+      assertTrue(replacer.replaceSection(converted, neighborhood));
+      assertEquals(Replacer.getKey(7, 2), converted.get(0));
+      assertEquals(Replacer.getKey(7, 2), converted.get(1));
+    }
+  }
+}